@@ -0,0 +1,79 @@
+package carpet.script;
+
+import carpet.script.value.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Early exits from loops and functions, with exception based control flow against local completions returned through evaluation.
+ * Run with {@code ./gradlew jmh -PjmhArgs="ControlFlow"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControlFlowBenchmark
+{
+    private static final Map<String, String> WORKLOADS = Map.of(
+            "loop_early_exit", """
+                    s = 0;
+                    loop(20000,
+                        c_for(i = 0, i < 100, i += 1,
+                            if(i > 10, break());
+                            if(i % 2, continue());
+                            s += i
+                        )
+                    );
+                    s
+                    """,
+            "udf_early_return", """
+                    direction(x) -> (
+                        if(x < 0, return(-1));
+                        if(x == 0, return(0));
+                        1
+                    );
+                    s = 0;
+                    loop(200000, s += direction(_ - 100000));
+                    s
+                    """
+    );
+
+    @Param({"loop_early_exit", "udf_early_return"})
+    public String workload;
+
+    @Param({"true", "false"})
+    public boolean localControlFlow;
+
+    private ScriptHost host;
+    private Expression expression;
+
+    @Setup
+    public void setup()
+    {
+        host = new BareScriptHost();
+        expression = new Expression(WORKLOADS.get(workload));
+        expression.localControlFlow = localControlFlow;
+        // parses and caches the tree, so only evaluation is measured
+        expression.executeAndEvaluate(new Context(host), true, Expression.LoadOverride.DEFAULT, null);
+    }
+
+    @Benchmark
+    public Value evaluate()
+    {
+        return expression.executeAndEvaluate(new Context(host), true, Expression.LoadOverride.DEFAULT, null).getLeft();
+    }
+}
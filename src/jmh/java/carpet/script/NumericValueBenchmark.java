@@ -0,0 +1,121 @@
+package carpet.script;
+
+import carpet.script.value.LazyListValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of single numeric operations and range iteration, mostly interesting for their allocation rate.
+ * Run with {@code ./gradlew jmh -PjmhArgs="NumericValue -prof gc"} and compare gc.alloc.rate.norm between operand kinds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NumericValueBenchmark
+{
+    @Param({"small", "large", "fractional"})
+    public String operands;
+
+    private Value left;
+    private Value right;
+
+    @Setup
+    public void setup()
+    {
+        switch (operands)
+        {
+            case "small" ->
+            {
+                left = new NumericValue(17);
+                right = new NumericValue(3);
+            }
+            case "large" ->
+            {
+                left = new NumericValue(1_000_000_017L);
+                right = new NumericValue(3_000_000L);
+            }
+            default ->
+            {
+                left = new NumericValue(17.5);
+                right = new NumericValue(3.25);
+            }
+        }
+    }
+
+    @Benchmark
+    public Value add()
+    {
+        return left.add(right);
+    }
+
+    @Benchmark
+    public Value multiply()
+    {
+        return left.multiply(right);
+    }
+
+    @Benchmark
+    public Value modulo()
+    {
+        return NumericValue.asNumber(left).mod(NumericValue.asNumber(right));
+    }
+
+    @Benchmark
+    public int compare()
+    {
+        return left.compareTo(right);
+    }
+
+    @Benchmark
+    public boolean equal()
+    {
+        return left.equals(right);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public void range(Blackhole blackhole)
+    {
+        long from = NumericValue.asNumber(left).getLong();
+        Iterator<Value> iterator = LazyListValue.rangeLong(from, from + 1000, 1).iterator();
+        while (iterator.hasNext())
+        {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    /**
+     * Range iteration as done by for, map and the other list loops, binding each element to _ and its index to _i
+     */
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public void rangeLoop(Blackhole blackhole)
+    {
+        long from = NumericValue.asNumber(left).getLong();
+        Iterator<Value> iterator = LazyListValue.rangeLong(from, from + 1000, 1).iterator();
+        for (int i = 0; iterator.hasNext(); i++)
+        {
+            blackhole.consume(iterator.next().bindTo("_"));
+            blackhole.consume(NumericValue.of(i).bindTo("_i"));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package carpet.script;
+
+import carpet.script.value.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation time of typical scarpet workloads, with the code parsed upfront.
+ * Run with {@code ./gradlew jmh -PjmhArgs="ScarpetEvaluation"}, adding {@code -prof gc} for allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScarpetEvaluationBenchmark
+{
+    private static final Map<String, String> WORKLOADS = Map.of(
+            "arithmetic", """
+                    s = 0;
+                    c_for(i = 0, i < 10000, i += 1, s += i * i % 7 - i / 3);
+                    s
+                    """,
+            "lists", """
+                    l = [];
+                    loop(5000, l += _ * 2);
+                    s = 0;
+                    for(l, s += _);
+                    s
+                    """,
+            "maps", """
+                    m = {};
+                    loop(5000, m:str('k%d', _ % 1000) = _);
+                    length(keys(m))
+                    """,
+            "strings", """
+                    c = 0;
+                    loop(2000, t = upper('item_' + _); c += length(replace(t, 'ITEM', 'x')));
+                    c + length(split(',', join(',', range(500))))
+                    """,
+            "recursion", """
+                    fib(n) -> if(n < 2, n, fib(n - 1) + fib(n - 2));
+                    fib(18)
+                    """,
+            "higher_order", """
+                    l = range(5000);
+                    reduce(filter(map(l, _ * 3), _ % 2 == 0), _a + _, 0)
+                    """
+    );
+
+    @Param({"arithmetic", "lists", "maps", "strings", "recursion", "higher_order"})
+    public String workload;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    private ScriptHost host;
+    private Expression expression;
+
+    @Setup
+    public void setup()
+    {
+        host = new BareScriptHost();
+        expression = new Expression(WORKLOADS.get(workload));
+        // parses and caches the tree, so only evaluation is measured
+        expression.executeAndEvaluate(new Context(host), optimize, Expression.LoadOverride.DEFAULT, null);
+    }
+
+    @Benchmark
+    public Value evaluate()
+    {
+        return expression.executeAndEvaluate(new Context(host), optimize, Expression.LoadOverride.DEFAULT, null).getLeft();
+    }
+}
@@ -0,0 +1,67 @@
+package carpet.script;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load time of the bundled apps: tokenizing alone, and the full parse with optimizations.
+ * Game specific functions are not registered here, so they parse as calls to user functions,
+ * which costs about the same as the real thing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScarpetParseBenchmark
+{
+    @Param({"camera", "ai_tracker", "event_test", "overlay"})
+    public String app;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    private String code;
+    private Context context;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        try (InputStream stream = ScarpetParseBenchmark.class.getResourceAsStream("/assets/carpet/scripts/" + app + ".sc"))
+        {
+            code = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        context = new Context(new BareScriptHost());
+    }
+
+    @Benchmark
+    public List<Token> tokenize()
+    {
+        Expression expression = new Expression(code);
+        return Tokenizer.postProcess(new Tokenizer(context, expression, code, true, false).parseTokens());
+    }
+
+    @Benchmark
+    public Expression.ExpressionNode parse()
+    {
+        Expression expression = new Expression(code);
+        expression.asATextSource();
+        return expression.getAST(context, optimize, false, null).getLeft();
+    }
+}
@@ -595,6 +595,17 @@ public class CarpetSettings
     @Rule(desc = "fill/clone/setblock and structure blocks cause block updates", category = CREATIVE)
     public static boolean fillUpdates = true;
 
+    @Rule(
+            desc = "Milliseconds per tick /draw can spend on large shapes, drawing them over several ticks, 0 to draw them at once",
+            extra = {"Shapes of up to 32768 blocks are always drawn right away,",
+                    "as are shapes drawn by command blocks, functions or scripts, so only commands typed by players or in the console run extra ticks"},
+            options = {"0", "10", "25"},
+            category = {CREATIVE, COMMAND},
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int drawTickBudget = 0;
+
     @Rule(desc = "placing blocks cause block updates", category = CREATIVE)
     public static boolean interactionUpdates = true;
 
@@ -1,9 +1,12 @@
 package carpet.commands;
 
+import carpet.CarpetServer;
 import carpet.CarpetSettings;
+import carpet.script.ExecutionBudget;
+import carpet.script.exception.ExitStatement;
+import carpet.script.utils.BulkBlockWriter;
 import carpet.utils.CommandHelper;
 import carpet.utils.Messenger;
-import com.google.common.collect.Lists;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
@@ -13,8 +16,8 @@ import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.RequiredArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
-import java.util.List;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 import net.minecraft.commands.CommandBuildContext;
 import net.minecraft.commands.CommandSourceStack;
@@ -25,9 +28,9 @@ import net.minecraft.commands.arguments.coordinates.BlockPosArgument;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.util.Mth;
-import net.minecraft.world.Container;
 import net.minecraft.world.level.block.Block;
-import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.block.state.properties.Property;
 import net.minecraft.world.level.block.state.pattern.BlockInWorld;
 import java.lang.Math;
 
@@ -37,6 +40,9 @@ import static net.minecraft.commands.SharedSuggestionProvider.suggest;
 
 public class DrawCommand
 {
+    // smaller shapes are drawn right away
+    private static final long INCREMENTAL_VOLUME = 1 << 15;
+
     public static void register(CommandDispatcher<CommandSourceStack> dispatcher, final CommandBuildContext context)
     {
         LiteralArgumentBuilder<CommandSourceStack> command = literal("draw").
@@ -126,24 +132,71 @@ public class DrawCommand
         return (x * x) + (y * y) + (z * z);
     }
 
+    /**
+     * Draws a shape, for large shapes typed by a player or in the console with the drawTickBudget rule on, a bit each tick,
+     * running ticks in the middle of drawing the same way scripts with a tick budget do
+     *
+     * @param volume rough number of blocks the shape may have
+     */
+    private static int draw(CommandSourceStack source, long volume, ToIntFunction<BulkBlockWriter> drawing)
+    {
+        BulkBlockWriter writer = new BulkBlockWriter(source.getLevel(), CarpetSettings.fillUpdates);
+        int affected;
+        if (CarpetSettings.drawTickBudget == 0 || volume <= INCREMENTAL_VOLUME || CarpetServer.scriptServer == null
+                || !CommandHelper.isTypedCommand(source))
+        {
+            affected = drawing.applyAsInt(writer);
+        }
+        else
+        {
+            int[] result = new int[]{0};
+            int[] ticks = new int[]{0};
+            try
+            {
+                int extraTicks = ExecutionBudget.run(CarpetSettings.drawTickBudget * 1000000L, () ->
+                {
+                    writer.flush();
+                    if (++ticks[0] % 20 == 0)
+                    {
+                        Messenger.m(source, "gi Drawing... " + writer.written() + " blocks placed so far");
+                    }
+                    return CarpetServer.scriptServer.runTickFromScript();
+                }, () -> result[0] = drawing.applyAsInt(writer));
+                if (extraTicks > 0)
+                {
+                    Messenger.m(source, "gi Drawing took " + (extraTicks + 1) + " ticks");
+                }
+            }
+            catch (ExitStatement stopped)
+            {
+                // server is stopping
+                Messenger.m(source, "r Drawing interrupted after " + writer.written() + " blocks");
+                return writer.written();
+            }
+            affected = result[0];
+        }
+        writer.flush();
+        Messenger.m(source, "gi Filled " + affected + " blocks");
+        return affected;
+    }
+
     private static int setBlock(
             ServerLevel world, BlockPos.MutableBlockPos mbpos, int x, int y, int z,
             BlockInput block, Predicate<BlockInWorld> replacement,
-            List<BlockPos> list
+            BulkBlockWriter writer
     )
     {
+        ExecutionBudget.check();
         mbpos.set(x, y, z);
         int success=0;
         if (replacement == null || replacement.test(new BlockInWorld(world, mbpos, true)))
         {
-            BlockEntity tileentity = world.getBlockEntity(mbpos);
-            if (tileentity instanceof Container)
-            {
-                ((Container) tileentity).clearContent();
-            }
-            if (block.place(world, mbpos, 2))
+            // block entities may come with data from the command
+            boolean placed = block.getState().hasBlockEntity()
+                    ? writer.place(mbpos, p -> block.place(world, p, 2))
+                    : writer.set(mbpos, shapedState(block, world, mbpos));
+            if (placed)
             {
-                list.add(mbpos.immutable());
                 ++success;
             }
         }
@@ -151,6 +204,30 @@ public class DrawCommand
         return success;
     }
 
+    /**
+     * State of the block as placing it would set it, connected to its neighbours, like fences or redstone,
+     * but with the properties given in the command kept
+     */
+    private static BlockState shapedState(BlockInput block, ServerLevel world, BlockPos pos)
+    {
+        BlockState state = block.getState();
+        BlockState shaped = Block.updateFromNeighbourShapes(state, world, pos);
+        if (shaped == state || shaped.isAir())
+        {
+            return state;
+        }
+        for (Property<?> property : block.getDefinedProperties())
+        {
+            shaped = copyProperty(state, shaped, property);
+        }
+        return shaped;
+    }
+
+    private static <T extends Comparable<T>> BlockState copyProperty(BlockState from, BlockState to, Property<T> property)
+    {
+        return to.setValue(property, from.getValue(property));
+    }
+
     private static int drawSphere(CommandContext<CommandSourceStack> ctx, boolean solid) throws CommandSyntaxException
     {
         BlockPos pos;
@@ -166,7 +243,6 @@ public class DrawCommand
         }
         catch (ErrorHandled ignored) { return 0; }
 
-        int affected = 0;
         ServerLevel world = ctx.getSource().getLevel();
 
         double radiusX = radius+0.5;
@@ -182,68 +258,64 @@ public class DrawCommand
         final int ceilRadiusZ = (int) Math.ceil(radiusZ);
 
         BlockPos.MutableBlockPos mbpos = pos.mutable();
-        List<BlockPos> list = Lists.newArrayList();
-
-        double nextXn = 0;
-
-        forX: for (int x = 0; x <= ceilRadiusX; ++x)
+        long volume = 8L * ceilRadiusX * ceilRadiusY * ceilRadiusZ;
+        return draw(ctx.getSource(), volume, writer ->
         {
-            final double xn = nextXn;
-            nextXn = (x + 1) * invRadiusX;
-            double nextYn = 0;
-            forY: for (int y = 0; y <= ceilRadiusY; ++y)
+            int affected = 0;
+            double nextXn = 0;
+
+            forX: for (int x = 0; x <= ceilRadiusX; ++x)
             {
-                final double yn = nextYn;
-                nextYn = (y + 1) * invRadiusY;
-                double nextZn = 0;
-                forZ: for (int z = 0; z <= ceilRadiusZ; ++z)
+                final double xn = nextXn;
+                nextXn = (x + 1) * invRadiusX;
+                double nextYn = 0;
+                forY: for (int y = 0; y <= ceilRadiusY; ++y)
                 {
-                    final double zn = nextZn;
-                    nextZn = (z + 1) * invRadiusZ;
-
-                    double distanceSq = lengthSq(xn, yn, zn);
-                    if (distanceSq > 1)
+                    final double yn = nextYn;
+                    nextYn = (y + 1) * invRadiusY;
+                    double nextZn = 0;
+                    forZ: for (int z = 0; z <= ceilRadiusZ; ++z)
                     {
-                        if (z == 0)
+                        final double zn = nextZn;
+                        nextZn = (z + 1) * invRadiusZ;
+
+                        double distanceSq = lengthSq(xn, yn, zn);
+                        if (distanceSq > 1)
                         {
-                            if (y == 0)
+                            if (z == 0)
                             {
-                                break forX;
+                                if (y == 0)
+                                {
+                                    break forX;
+                                }
+                                break forY;
                             }
-                            break forY;
+                            break forZ;
                         }
-                        break forZ;
-                    }
 
-                    if (!solid && lengthSq(nextXn, yn, zn) <= 1 && lengthSq(xn, nextYn, zn) <= 1 && lengthSq(xn, yn, nextZn) <= 1)
-                    {
-                        continue;
-                    }
+                        if (!solid && lengthSq(nextXn, yn, zn) <= 1 && lengthSq(xn, nextYn, zn) <= 1 && lengthSq(xn, yn, nextZn) <= 1)
+                        {
+                            continue;
+                        }
 
-                    CarpetSettings.impendingFillSkipUpdates.set(!CarpetSettings.fillUpdates);
-                    for (int xmod = -1; xmod < 2; xmod += 2)
-                    {
-                        for (int ymod = -1; ymod < 2; ymod += 2)
+                        for (int xmod = -1; xmod < 2; xmod += 2)
                         {
-                            for (int zmod = -1; zmod < 2; zmod += 2)
+                            for (int ymod = -1; ymod < 2; ymod += 2)
                             {
-                                affected+= setBlock(world, mbpos,
-                                        pos.getX() + xmod * x, pos.getY() + ymod * y, pos.getZ() + zmod * z,
-                                        block, replacement, list
-                                );
+                                for (int zmod = -1; zmod < 2; zmod += 2)
+                                {
+                                    affected+= setBlock(world, mbpos,
+                                            pos.getX() + xmod * x, pos.getY() + ymod * y, pos.getZ() + zmod * z,
+                                            block, replacement, writer
+                                    );
+                                }
                             }
                         }
                     }
-                    CarpetSettings.impendingFillSkipUpdates.set(false);
                 }
             }
-        }
-        if (CarpetSettings.fillUpdates)
-        {
-            list.forEach(blockpos1 -> world.updateNeighborsAt(blockpos1, world.getBlockState(blockpos1).getBlock()));
-        }
-        Messenger.m(ctx.getSource(), "gi Filled " + affected + " blocks");
-        return affected;
+            return affected;
+        });
     }
 
     private static int drawDiamond(CommandContext<CommandSourceStack> ctx, boolean solid) throws CommandSyntaxException
@@ -263,45 +335,33 @@ public class DrawCommand
 
         CommandSourceStack source = ctx.getSource();
 
-        int affected=0;
-
         BlockPos.MutableBlockPos mbpos = pos.mutable();
-        List<BlockPos> list = Lists.newArrayList();
-
         ServerLevel world = source.getLevel();
 
-        CarpetSettings.impendingFillSkipUpdates.set(!CarpetSettings.fillUpdates);
-
-        for (int r = 0; r < radius; ++r)
+        return draw(source, 4L * radius * radius, writer ->
         {
-            int y=r-radius+1;
-            for (int x = -r; x <= r; ++x)
+            int affected = 0;
+            for (int r = 0; r < radius; ++r)
             {
-                int z=r-Math.abs(x);
+                int y=r-radius+1;
+                for (int x = -r; x <= r; ++x)
+                {
+                    int z=r-Math.abs(x);
 
-                affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()-y, pos.getZ()+z, block, replacement, list);
-                affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()-y, pos.getZ()-z, block, replacement, list);
-                affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()+y, pos.getZ()+z, block, replacement, list);
-                affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()+y, pos.getZ()-z, block, replacement, list);
+                    affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()-y, pos.getZ()+z, block, replacement, writer);
+                    affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()-y, pos.getZ()-z, block, replacement, writer);
+                    affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()+y, pos.getZ()+z, block, replacement, writer);
+                    affected+= setBlock(world, mbpos, pos.getX()+x, pos.getY()+y, pos.getZ()-z, block, replacement, writer);
+                }
             }
-        }
-
-        CarpetSettings.impendingFillSkipUpdates.set(false);
-
-        if (CarpetSettings.fillUpdates)
-        {
-            list.forEach(p -> world.updateNeighborsAt(p, world.getBlockState(p).getBlock()));
-        }
-
-        Messenger.m(source, "gi Filled " + affected + " blocks");
-
-        return affected;
+            return affected;
+        });
     }
 
     private static int fillFlat(
             ServerLevel world, BlockPos pos, int offset, double dr, boolean rectangle, String orientation,
             BlockInput block, Predicate<BlockInWorld> replacement,
-            List<BlockPos> list, BlockPos.MutableBlockPos mbpos
+            BulkBlockWriter writer, BlockPos.MutableBlockPos mbpos
     )
     {
         int successes=0;
@@ -313,7 +373,7 @@ public class DrawCommand
             {
                 successes += setBlock(
                         world, mbpos,pos.getX()+offset, pos.getY()+a, pos.getZ()+b,
-                        block, replacement, list
+                        block, replacement, writer
                 );
             }
             return successes;
@@ -324,7 +384,7 @@ public class DrawCommand
             {
                 successes += setBlock(
                         world, mbpos,pos.getX()+a, pos.getY()+offset, pos.getZ()+b,
-                        block, replacement, list
+                        block, replacement, writer
                 );
             }
             return successes;
@@ -335,7 +395,7 @@ public class DrawCommand
             {
                 successes += setBlock(
                         world, mbpos,pos.getX()+b, pos.getY()+a, pos.getZ()+offset,
-                        block, replacement, list
+                        block, replacement, writer
                 );
             }
             return successes;
@@ -366,36 +426,23 @@ public class DrawCommand
 
         CommandSourceStack source = ctx.getSource();
 
-        int affected = 0;
         BlockPos.MutableBlockPos mbpos = pos.mutable();
 
-        List<BlockPos> list = Lists.newArrayList();
-
         ServerLevel world = source.getLevel();
 
-        CarpetSettings.impendingFillSkipUpdates.set(!CarpetSettings.fillUpdates);
-
         boolean isSquare = base.equalsIgnoreCase("square");
 
-        for(int i =0; i<height;++i)
+        long volume = (long) (height * (2 * radius + 1) * (2 * radius + 1));
+        return draw(source, volume, writer ->
         {
-            double r = pointup ? radius - radius * i / height - 1 : radius * i / height;
-            affected+= fillFlat(world, pos, i, r, isSquare, orientation, block, replacement, list, mbpos);
-        }
-        
-        CarpetSettings.impendingFillSkipUpdates.set(false);
-
-        if (CarpetSettings.fillUpdates) {
-
-            for (BlockPos blockpos1 : list) {
-                Block blokc = world.getBlockState(blockpos1).getBlock();
-                world.updateNeighborsAt(blockpos1, blokc);
+            int affected = 0;
+            for(int i =0; i<height;++i)
+            {
+                double r = pointup ? radius - radius * i / height - 1 : radius * i / height;
+                affected+= fillFlat(world, pos, i, r, isSquare, orientation, block, replacement, writer, mbpos);
             }
-        }
-
-        Messenger.m(source, "gi Filled " + affected + " blocks");
-
-        return affected;
+            return affected;
+        });
     }
 
     private static int drawPrism(CommandContext<CommandSourceStack> ctx, String base){
@@ -418,34 +465,21 @@ public class DrawCommand
 
         CommandSourceStack source = ctx.getSource();
 
-        int affected = 0;
         BlockPos.MutableBlockPos mbpos = pos.mutable();
 
-        List<BlockPos> list = Lists.newArrayList();
-
         ServerLevel world = source.getLevel();
 
-        CarpetSettings.impendingFillSkipUpdates.set(!CarpetSettings.fillUpdates);
-
         boolean isSquare = base.equalsIgnoreCase("square");
 
-        for(int i =0; i<height;++i)
+        long volume = (long) (height * (2 * radius + 1) * (2 * radius + 1));
+        return draw(source, volume, writer ->
         {
-            affected+= fillFlat(world, pos, i, radius, isSquare, orientation, block, replacement, list, mbpos);
-        }
-
-        CarpetSettings.impendingFillSkipUpdates.set(false);
-
-        if (CarpetSettings.fillUpdates) {
-
-            for (BlockPos blockpos1 : list) {
-                Block blokc = world.getBlockState(blockpos1).getBlock();
-                world.updateNeighborsAt(blockpos1, blokc);
+            int affected = 0;
+            for(int i =0; i<height;++i)
+            {
+                affected+= fillFlat(world, pos, i, radius, isSquare, orientation, block, replacement, writer, mbpos);
             }
-        }
-
-        Messenger.m(source, "gi Filled " + affected + " blocks");
-
-        return affected;
+            return affected;
+        });
     }
 }
@@ -0,0 +1,24 @@
+package carpet.mixins;
+
+import carpet.utils.CommandHelper;
+import net.minecraft.server.dedicated.DedicatedServer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(DedicatedServer.class)
+public class DedicatedServer_typedCommandsMixin
+{
+    @Inject(method = "handleConsoleInputs", at = @At("HEAD"))
+    private void onConsoleCommandsStart(CallbackInfo ci)
+    {
+        CommandHelper.startTypedCommand((DedicatedServer) (Object) this);
+    }
+
+    @Inject(method = "handleConsoleInputs", at = @At("RETURN"))
+    private void onConsoleCommandsEnd(CallbackInfo ci)
+    {
+        CommandHelper.endTypedCommand();
+    }
+}
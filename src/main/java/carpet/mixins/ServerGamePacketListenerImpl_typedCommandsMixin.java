@@ -0,0 +1,28 @@
+package carpet.mixins;
+
+import carpet.utils.CommandHelper;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ServerGamePacketListenerImpl.class)
+public class ServerGamePacketListenerImpl_typedCommandsMixin
+{
+    @Shadow public ServerPlayer player;
+
+    @Inject(method = {"performUnsignedChatCommand", "performSignedChatCommand"}, at = @At("HEAD"))
+    private void onTypedCommandStart(CallbackInfo ci)
+    {
+        CommandHelper.startTypedCommand(player.getServer());
+    }
+
+    @Inject(method = {"performUnsignedChatCommand", "performSignedChatCommand"}, at = @At("RETURN"))
+    private void onTypedCommandEnd(CallbackInfo ci)
+    {
+        CommandHelper.endTypedCommand();
+    }
+}
@@ -1,5 +1,6 @@
 package carpet.script;
 
+import carpet.script.utils.EntityQueryCache;
 import carpet.script.value.Value;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.core.BlockPos;
@@ -24,16 +25,26 @@ public class CarpetContext extends Context
     }
 
     public CarpetContext(ScriptHost host, CommandSourceStack source, BlockPos origin)
+    {
+        this(host, source, origin, true);
+    }
+
+    private CarpetContext(ScriptHost host, CommandSourceStack source, BlockPos origin, boolean fromGame)
     {
         super(host);
         s = source;
         this.origin = origin;
+        if (fromGame)
+        {
+            // the game may have moved entities around since scarpet last looked at them
+            EntityQueryCache.invalidate();
+        }
     }
 
     @Override
     public CarpetContext duplicate()
     {
-        return new CarpetContext(this.host, this.s, this.origin);
+        return new CarpetContext(this.host, this.s, this.origin, false);
     }
 
     @Override
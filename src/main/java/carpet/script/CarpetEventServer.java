@@ -18,13 +18,12 @@ import carpet.script.value.Value;
 import carpet.script.value.ValueConversions;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -74,7 +73,7 @@ import javax.annotation.Nullable;
 
 public class CarpetEventServer
 {
-    public final List<ScheduledCall> scheduledCalls = new LinkedList<>();
+    public final ScheduledCallWheel scheduledCalls = new ScheduledCallWheel();
     public final CarpetScriptServer scriptServer;
     private static final List<Value> NOARGS = Collections.emptyList();
     public final Map<String, Event> customEvents = new HashMap<>();
@@ -93,6 +92,11 @@ public class CarpetEventServer
         public final FunctionValue function;
         public final List<Value> parametrizedArgs;
         public final CarpetScriptServer scriptServer;
+        // position in the callback list, keeps the list order when dispatching from the per player index
+        int position;
+        @Nullable
+        private CarpetScriptHost resolvedHost;
+        private int resolvedVersion = -1;
 
         public Callback(String host, @Nullable String target, FunctionValue function, List<Value> parametrizedArgs, CarpetScriptServer scriptServer)
         {
@@ -120,9 +124,22 @@ public class CarpetEventServer
             {
                 return CallbackResult.FAIL; // already stopped
             }
+            // player events are sent from the player themselves, no need to look them up by name
+            ServerPlayer target = optionalTarget != null && sender.getEntity() instanceof ServerPlayer player && player.getScoreboardName().equals(optionalTarget) ? player : null;
             return scriptServer.events.runEventCall(
                     sender.withPermission(Vanilla.MinecraftServer_getRunPermissionLevel(sender.getServer())),
-                    host, optionalTarget, function, runtimeArgs);
+                    resolveHost(), optionalTarget, target, function, runtimeArgs);
+        }
+
+        @Nullable
+        private CarpetScriptHost resolveHost()
+        {
+            if (resolvedVersion != scriptServer.hostsVersion)
+            {
+                resolvedHost = scriptServer.getAppHostByName(host);
+                resolvedVersion = scriptServer.hostsVersion;
+            }
+            return resolvedHost;
         }
 
         /**
@@ -165,14 +182,18 @@ public class CarpetEventServer
     {
 
         private final CarpetContext ctx;
+        /**
+         * absolute tick of the scheduler when the call is due
+         */
         public long dueTime;
+        long sequence;
+        boolean cancelled;
 
-        public ScheduledCall(CarpetContext context, FunctionValue function, List<Value> args, long dueTime)
+        public ScheduledCall(CarpetContext context, FunctionValue function, List<Value> args)
         {
             // ignoring target as we will be always calling self
             super(context.host.getName(), null, function, args, (CarpetScriptServer) context.scriptServer());
             this.ctx = context.duplicate();
-            this.dueTime = dueTime;
         }
 
         /**
@@ -188,7 +209,15 @@ public class CarpetEventServer
     {
 
         private List<Callback> callList;
+        // callbacks of player scoped apps by their player, and all others, both in callList order
+        private Map<String, List<Callback>> byTarget;
+        private List<Callback> untargeted;
+        private int nextPosition;
         private final List<Callback> removedCalls;
+        // dispatch statistics, reported with /script event stats
+        public long dispatches;
+        public long argumentLists;
+        public long argumentValues;
         private boolean inCall;
         private boolean inSignal;
         public final int reqArgs;
@@ -198,6 +227,8 @@ public class CarpetEventServer
         public CallbackList(int reqArgs, boolean isSystem, boolean isGlobalOnly)
         {
             this.callList = new ArrayList<>();
+            this.byTarget = new HashMap<>();
+            this.untargeted = new ArrayList<>();
             this.removedCalls = new ArrayList<>();
             this.inCall = false;
             this.inSignal = false;
@@ -211,11 +242,44 @@ public class CarpetEventServer
             return new ArrayList<>(callList);
         }
 
+        private void add(Callback call)
+        {
+            call.position = nextPosition++;
+            callList.add(call);
+            if (call.optionalTarget == null)
+            {
+                untargeted.add(call);
+            }
+            else
+            {
+                byTarget.computeIfAbsent(call.optionalTarget, t -> new ArrayList<>()).add(call);
+            }
+        }
+
+        /**
+         * Rebuilds the per player index after callbacks were removed or reordered.
+         * Uses new lists, so index lists that are being dispatched from stay intact
+         */
+        private void reindex()
+        {
+            byTarget = new HashMap<>();
+            untargeted = new ArrayList<>();
+            nextPosition = 0;
+            for (Callback call : callList)
+            {
+                call.position = nextPosition++;
+                (call.optionalTarget == null ? untargeted : byTarget.computeIfAbsent(call.optionalTarget, t -> new ArrayList<>())).add(call);
+            }
+        }
+
         private void removeCallsIf(Predicate<Callback> when)
         {
             if (!inCall && !inSignal)
             {
-                callList.removeIf(when);
+                if (callList.removeIf(when))
+                {
+                    reindex();
+                }
                 return;
             }
             // we are ok with list growing in the meantime and parallel access, we are only scanning.
@@ -258,33 +322,35 @@ public class CarpetEventServer
             }
             Boolean isCancelled = scriptServer.events.handleEvents.runIfEnabled(() -> {
                 Runnable profilerToken = Carpet.startProfilerSection("Scarpet events");
-                List<Value> argv = argumentSupplier.get(); // empty for onTickDone
+                // built once, on the first callback that actually runs, and shared by all of them
+                List<Value> argv = new EventArguments(this, argumentSupplier);
                 String nameCheck = perPlayerDistribution ? source.getTextName() : null;
-                assert argv.size() == reqArgs;
+                dispatches++;
                 boolean cancelled = false;
                 try
                 {
                     // we are ok with list growing in the meantime
                     // which might happen during inCall or inSignal
                     inCall = true;
-                    for (int i = 0; i < callList.size(); i++)
+                    if (nameCheck == null)
                     {
-                        Callback call = callList.get(i);
-                        // supressing calls where target player hosts simply don't match
-                        // handling global hosts with player targets is left to when the host is resolved (few calls deeper).
-                        if (nameCheck != null && call.optionalTarget != null && !nameCheck.equals(call.optionalTarget))
-                        {
-                            continue;
-                        }
-                        CallbackResult result = call.execute(source, argv);
-                        if (result == CallbackResult.CANCEL)
+                        for (int i = 0; i < callList.size() && !cancelled; i++)
                         {
-                            cancelled = true;
-                            break;
+                            cancelled = execute(callList.get(i), source, argv);
                         }
-                        if (result == CallbackResult.FAIL)
+                    }
+                    else
+                    {
+                        // only callbacks without a target and the ones of the player, merged back in list order.
+                        // handling global hosts with player targets is left to when the host is resolved (few calls deeper).
+                        List<Callback> global = untargeted;
+                        List<Callback> targeted = byTarget.getOrDefault(nameCheck, List.of());
+                        int i = 0;
+                        int j = 0;
+                        while (!cancelled && (i < global.size() || j < targeted.size()))
                         {
-                            removedCalls.add(call);
+                            boolean nextTargeted = j < targeted.size() && (i == global.size() || targeted.get(j).position < global.get(i).position);
+                            cancelled = execute(nextTargeted ? targeted.get(j++) : global.get(i++), source, argv);
                         }
                     }
                 }
@@ -292,17 +358,80 @@ public class CarpetEventServer
                 {
                     inCall = false;
                 }
-                for (Callback call : removedCalls)
+                if (!removedCalls.isEmpty())
                 {
-                    callList.remove(call);
+                    callList.removeAll(removedCalls);
+                    removedCalls.clear();
+                    reindex();
                 }
-                removedCalls.clear();
                 profilerToken.run();
                 return cancelled;
             });
             return isCancelled != null && isCancelled;
         }
 
+        /**
+         * @return whether the call cancelled the event
+         */
+        private boolean execute(Callback call, CommandSourceStack source, List<Value> argv)
+        {
+            CallbackResult result = call.execute(source, argv);
+            if (result == CallbackResult.FAIL)
+            {
+                removedCalls.add(call);
+            }
+            return result == CallbackResult.CANCEL;
+        }
+
+        /**
+         * Read only event arguments, constructed on first access. Size is known upfront from the event,
+         * so checking arguments against the function doesn't build them
+         */
+        private static final class EventArguments extends AbstractList<Value>
+        {
+            private final CallbackList owner;
+            @Nullable
+            private Supplier<List<Value>> supplier;
+            private List<Value> values;
+
+            private EventArguments(CallbackList owner, Supplier<List<Value>> supplier)
+            {
+                this.owner = owner;
+                this.supplier = supplier;
+            }
+
+            private List<Value> values()
+            {
+                if (supplier != null)
+                {
+                    values = supplier.get(); // empty for onTickDone
+                    supplier = null;
+                    assert values.size() == owner.reqArgs;
+                    owner.argumentLists++;
+                    owner.argumentValues += values.size();
+                }
+                return values;
+            }
+
+            @Override
+            public Value get(int index)
+            {
+                return values().get(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return owner.reqArgs;
+            }
+
+            @Override
+            public Object[] toArray()
+            {
+                return values().toArray();
+            }
+        }
+
         public int signal(CommandSourceStack sender, @Nullable ServerPlayer recipient, List<Value> callArg)
         {
             if (callList.isEmpty())
@@ -363,7 +492,7 @@ public class CarpetEventServer
             //remove duplicates
 
             removeEventCall(hostName, target, udf.getString());
-            callList.add(new Callback(hostName, target, udf, null, scriptServer));
+            add(new Callback(hostName, target, udf, null, scriptServer));
             return true;
         }
 
@@ -375,7 +504,7 @@ public class CarpetEventServer
             }
             //removing duplicates
             removeEventCall(host.getName(), host.user, function.getString());
-            callList.add(new Callback(host.getName(), host.user, function, args, (CarpetScriptServer) host.scriptServer()));
+            add(new Callback(host.getName(), host.user, function, args, (CarpetScriptServer) host.scriptServer()));
             return true;
         }
 
@@ -404,7 +533,7 @@ public class CarpetEventServer
                     copyCalls.add(new Callback(c.host, host.user, c.function, c.parametrizedArgs, host.scriptServer()));
                 }
             });
-            callList.addAll(copyCalls);
+            copyCalls.forEach(this::add);
         }
 
         public void clearEverything()
@@ -415,11 +544,13 @@ public class CarpetEventServer
                 callList = new ArrayList<>();
             }
             callList.clear();
+            reindex();
         }
 
         public void sortByPriority(CarpetScriptServer scriptServer)
         {
             callList.sort(Comparator.comparingDouble(c -> -scriptServer.getAppHostByName(c.host).eventPriority));
+            reindex();
         }
     }
 
@@ -994,6 +1125,10 @@ public class CarpetEventServer
             @Override
             public void onPlayerStatistic(ServerPlayer player, Stat<?> stat, int amount)
             {
+                if (!isNeeded())
+                {
+                    return;
+                }
                 ResourceLocation id = getStatId(stat);
                 if (skippedStats.contains(id))
                 {
@@ -1375,28 +1510,12 @@ public class CarpetEventServer
         {
             return;
         }
-        Iterator<ScheduledCall> eventIterator = scheduledCalls.iterator();
-        List<ScheduledCall> currentCalls = new ArrayList<>();
-        while (eventIterator.hasNext())
-        {
-            ScheduledCall call = eventIterator.next();
-            call.dueTime--;
-            if (call.dueTime <= 0)
-            {
-                currentCalls.add(call);
-                eventIterator.remove();
-            }
-        }
-        for (ScheduledCall call : currentCalls)
-        {
-            call.execute();
-        }
-
+        scheduledCalls.tick(ScheduledCall::execute);
     }
 
     public void scheduleCall(CarpetContext context, FunctionValue function, List<Value> args, long due)
     {
-        scheduledCalls.add(new ScheduledCall(context, function, args, due));
+        scheduledCalls.schedule(new ScheduledCall(context, function, args), due);
     }
 
     public void runScheduledCall(BlockPos origin, CommandSourceStack source, String hostname, CarpetScriptHost host, FunctionValue udf, List<Value> argv)
@@ -1416,7 +1535,14 @@ public class CarpetEventServer
 
     public CallbackResult runEventCall(CommandSourceStack sender, String hostname, String optionalTarget, FunctionValue udf, List<Value> argv)
     {
-        CarpetScriptHost appHost = scriptServer.getAppHostByName(hostname);
+        return runEventCall(sender, scriptServer.getAppHostByName(hostname), optionalTarget, null, udf, argv);
+    }
+
+    /**
+     * @param knownTarget target player if already known to the caller, otherwise it is looked up by name
+     */
+    public CallbackResult runEventCall(CommandSourceStack sender, @Nullable CarpetScriptHost appHost, String optionalTarget, @Nullable ServerPlayer knownTarget, FunctionValue udf, List<Value> argv)
+    {
         // no such app
         if (appHost == null)
         {
@@ -1427,8 +1553,8 @@ public class CarpetEventServer
         {
             return CallbackResult.PASS;
         }
-        ServerPlayer target = null;
-        if (optionalTarget != null)
+        ServerPlayer target = knownTarget;
+        if (optionalTarget != null && target == null)
         {
             target = sender.getServer().getPlayerList().getPlayerByName(optionalTarget);
             if (target == null)
@@ -1550,6 +1676,9 @@ public class CarpetEventServer
             }
         }
         // remove scheduled calls
-        scheduledCalls.removeIf(sc -> sc.host != null && sc.host.equals(host.getName()));
+        if (host.getName() != null)
+        {
+            scheduledCalls.removeHost(host.getName());
+        }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
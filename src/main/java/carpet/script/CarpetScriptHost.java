@@ -13,6 +13,7 @@ import carpet.script.exception.InvalidCallbackException;
 import carpet.script.exception.LoadException;
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
+import carpet.script.utils.AppDataJournal;
 import carpet.script.utils.AppStoreManager;
 import carpet.script.value.EntityValue;
 import carpet.script.value.FunctionValue;
@@ -54,6 +55,7 @@ import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -66,9 +68,17 @@ public class CarpetScriptHost extends ScriptHost
     public CommandSourceStack responsibleSource;
 
     private Tag globalState;
+    @Nullable
+    private AppDataJournal dataJournal;
     private int saveTimeout;
     public boolean persistenceRequired;
     public double eventPriority;
+    // time slice in milliseconds per tick for commands typed by players or in the console, 0 to run them in one go.
+    // commands from command blocks, functions, scripts and suggestions always run at once, since they run in the middle of a tick
+    public long tickBudget;
+    public int slicedJobs;
+    public long slicedTicks;
+    private int lastSlicedTicks;
 
     public Map<Value, Value> appConfig;
     public Map<String, CommandArgument> appArgTypes;
@@ -323,6 +333,11 @@ public class CarpetScriptHost extends ScriptHost
             persistenceRequired = config.getOrDefault(new StringValue("stay_loaded"), Value.TRUE).getBoolean();
             strict = config.getOrDefault(StringValue.of("strict"), Value.FALSE).getBoolean();
             eventPriority = config.getOrDefault(new StringValue("event_priority"), Value.ZERO).readDoubleNumber();
+            tickBudget = Math.max(0, config.getOrDefault(StringValue.of("tick_budget"), Value.ZERO).readInteger());
+            if (parent == null && main != null && config.getOrDefault(StringValue.of("journaled_data"), Value.FALSE).getBoolean())
+            {
+                dataJournal = Module.openJournal(main, globalState, scriptServer());
+            }
             // check requires
             Value loadRequirements = config.get(new StringValue("requires"));
             if (loadRequirements instanceof final FunctionValue functionValue)
@@ -717,11 +732,68 @@ public class CarpetScriptHost extends ScriptHost
         return Value.NULL;
     }
 
+    /**
+     * Runs a command, spread over multiple ticks if the app has a tick budget and the command was typed by a player or in the console.
+     * Other commands may run in the middle of a tick, where running more ticks is not safe, so they always run at once
+     */
+    public Value runSliced(CommandSourceStack source, Supplier<Value> job)
+    {
+        CarpetScriptHost app = appHost();
+        if (app.tickBudget <= 0 || !Carpet.isTypedCommand(source))
+        {
+            app.lastSlicedTicks = 0;
+            return job.get();
+        }
+        Value[] result = new Value[]{Value.NULL};
+        int ticks = ExecutionBudget.run(app.tickBudget * 1000000L, scriptServer()::runTickFromScript, () -> result[0] = job.get());
+        app.lastSlicedTicks = ticks;
+        if (ticks > 0)
+        {
+            app.slicedJobs++;
+            app.slicedTicks += ticks;
+        }
+        return result[0];
+    }
+
+    /**
+     * @return number of extra ticks the last sliced command of the app ran through
+     */
+    public int lastSlicedTicks()
+    {
+        return appHost().lastSlicedTicks;
+    }
+
+    /**
+     * @return host of the app, shared by all its player instances
+     */
+    public CarpetScriptHost appHost()
+    {
+        return parent == null ? this : (CarpetScriptHost) parent;
+    }
+
     public Value handleCommand(CommandSourceStack source, FunctionValue function, List<Value> args)
+    {
+        return handleCommand(() -> runSliced(source, () -> callWhileEventsDisabled(source, function, args)));
+    }
+
+    /**
+     * Calls a custom suggester, never sliced, as suggestions are computed while handling other packets
+     */
+    public Value handleSuggestions(CommandSourceStack source, FunctionValue function, List<Value> args)
+    {
+        return handleCommand(() -> callWhileEventsDisabled(source, function, args));
+    }
+
+    private Value callWhileEventsDisabled(CommandSourceStack source, FunctionValue function, List<Value> args)
+    {
+        return scriptServer().events.handleEvents.getWhileDisabled(() -> call(source, function, args));
+    }
+
+    private Value handleCommand(Supplier<Value> command)
     {
         try
         {
-            return scriptServer().events.handleEvents.getWhileDisabled(() -> call(source, function, args));
+            return command.get();
         }
         catch (CarpetExpressionException exc)
         {
@@ -963,7 +1035,7 @@ public class CarpetScriptHost extends ScriptHost
 
     private void dumpState()
     {
-        Module.saveData(main, globalState, this.scriptServer());
+        Module.saveData(main, globalState, this.scriptServer(), dataJournal);
     }
 
     private Tag loadState()
@@ -7,6 +7,7 @@ import carpet.script.api.Entities;
 import carpet.script.api.Inventories;
 import carpet.script.api.Scoreboards;
 import carpet.script.api.WorldAccess;
+import carpet.script.exception.ExitStatement;
 import carpet.script.exception.ExpressionException;
 import carpet.script.exception.LoadException;
 import carpet.script.external.Carpet;
@@ -20,10 +21,12 @@ import carpet.script.language.Sys;
 import carpet.script.language.Threading;
 import carpet.script.utils.AppStoreManager;
 import carpet.script.value.FunctionValue;
+import carpet.script.value.Value;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.tree.CommandNode;
 
 import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
@@ -46,6 +49,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -66,6 +71,10 @@ public class CarpetScriptServer extends ScriptServer
     public int tickDepth;
     private Set<String> holyMoly;
     public CarpetEventServer events;
+    /**
+     * Bumped whenever apps are loaded or unloaded, so app hosts resolved by name can be cached until then
+     */
+    public int hostsVersion;
 
     private static final List<Module> bundledModuleData = new ArrayList<>();
     private static final List<Module> ruleModuleData = new ArrayList<>();
@@ -128,7 +137,11 @@ public class CarpetScriptServer extends ScriptServer
     {
         if (Vanilla.MinecraftServer_doScriptsAutoload(server))
         {
-            for (String moduleName : listAvailableModules(false))
+            List<String> moduleNames = listAvailableModules(false);
+            Map<String, TransferData> apps = new HashMap<>();
+            moduleNames.forEach(name -> apps.put(name, new TransferData(true, p -> true, false, Expression.LoadOverride.DEFAULT)));
+            parseAhead(apps);
+            for (String moduleName : moduleNames)
             {
                 addScriptHost(server.createCommandSourceStack(), moduleName, null, true, true, false, null, Expression.LoadOverride.DEFAULT);
             }
@@ -136,6 +149,63 @@ public class CarpetScriptServer extends ScriptServer
         CarpetEventServer.Event.START.onTick(server);
     }
 
+    /**
+     * Reads and parses apps on worker threads, before they are loaded one by one, in order, on the main thread,
+     * where they find their code parsed already. Problems are left for the actual load to report.
+     * Expressions are still made on the main thread, since extensions add their functions to each of them,
+     * and were never meant to do that from other threads
+     */
+    private void parseAhead(Map<String, TransferData> apps)
+    {
+        // debugging logs how the code is optimized as it loads
+        if (apps.size() < 2 || Vanilla.ScriptServer_scriptDebugging(server))
+        {
+            return;
+        }
+        boolean optimize = Vanilla.ScriptServer_scriptOptimizations(server);
+        CommandSourceStack source = server.createCommandSourceStack();
+        Map<String, Module> found = new ConcurrentHashMap<>();
+        apps.entrySet().parallelStream().forEach(app -> {
+            try
+            {
+                Module module = app.getValue().isRuleApp() ? getRuleModule(app.getKey()) : getModule(app.getKey(), false);
+                if (module != null)
+                {
+                    found.put(app.getKey(), module);
+                }
+            }
+            catch (RuntimeException ignored)
+            {
+                // reported when the app is loaded
+            }
+        });
+        List<Runnable> parsing = new ArrayList<>();
+        found.forEach((name, module) -> {
+            try
+            {
+                CarpetExpression ex = new CarpetExpression(module, module.code(), source, BlockPos.ZERO);
+                ex.getExpr().asATextSource();
+                CarpetContext context = new CarpetContext(globalHost, source, BlockPos.ZERO);
+                Expression.LoadOverride override = apps.get(name).override();
+                parsing.add(() -> ex.getExpr().parse(context, optimize, override, null));
+            }
+            catch (RuntimeException ignored)
+            {
+                // reported when the app is loaded
+            }
+        });
+        parsing.parallelStream().forEach(parse -> {
+            try
+            {
+                parse.run();
+            }
+            catch (RuntimeException | StackOverflowError ignored)
+            {
+                // reported when the app is loaded
+            }
+        });
+    }
+
     public Module getModule(String name, boolean allowLibraries)
     {
         try
@@ -270,6 +340,7 @@ public class CarpetScriptServer extends ScriptServer
         }
 
         modules.put(name, newHost);
+        hostsVersion++;
         if (!isRuleApp)
         {
             unloadableModules.add(name);
@@ -352,8 +423,11 @@ public class CarpetScriptServer extends ScriptServer
         }
         // stop all events associated with name
         CarpetScriptHost host = modules.remove(name);
+        hostsVersion++;
         events.removeAllHostEvents(host);
         host.onClose();
+        // app data written on close needs to be on disk before the app can be loaded again
+        fileWriter.flush();
         if (host.hasCommand)
         {
             Vanilla.CommandDispatcher_unregisterCommand(server.getCommands().getDispatcher(), name);
@@ -422,9 +496,51 @@ public class CarpetScriptServer extends ScriptServer
             host.onClose();
             events.removeAllHostEvents(host);
         }
+        fileWriter.close();
         stopAll = true;
     }
 
+    /**
+     * Runs a server tick in the middle of a time sliced script, same as game_tick(), first waiting for the tick to be due.
+     * Events are handled in these ticks, even if the script runs with events disabled,
+     * and blocks update in them, even if the script runs with block updates suppressed, like a scan with fillUpdates off
+     */
+    public boolean runTickFromScript()
+    {
+        if (tickDepth > 16)
+        {
+            return false;
+        }
+        long wait = tickStart + 50000000L - System.nanoTime();
+        if (wait > 0L)
+        {
+            LockSupport.parkNanos(wait);
+        }
+        tickStart = System.nanoTime();
+        tickDepth++;
+        ThreadLocal<Boolean> skipUpdates = Carpet.getImpendingFillSkipUpdates();
+        boolean skippingUpdates = skipUpdates.get();
+        skipUpdates.set(false);
+        try
+        {
+            events.handleEvents.getWhileEnabled(() -> {
+                Vanilla.MinecraftServer_forceTick(server, () -> System.nanoTime() - tickStart < 50000000L);
+                return null;
+            });
+        }
+        finally
+        {
+            // the tick may have changed it too, from player interactions
+            skipUpdates.set(skippingUpdates);
+            tickDepth--;
+        }
+        if (stopAll)
+        {
+            throw new ExitStatement(Value.NULL);
+        }
+        return true;
+    }
+
     public void onPlayerJoin(ServerPlayer player)
     {
         PLAYER_CONNECTS.onPlayerEvent(player);
@@ -473,6 +589,7 @@ public class CarpetScriptServer extends ScriptServer
         apps.keySet().forEach(s -> removeScriptHost(server.createCommandSourceStack(), s, false, false));
         CarpetEventServer.Event.clearAllBuiltinEvents();
         init();
+        parseAhead(apps);
         apps.forEach((s, data) -> addScriptHost(server.createCommandSourceStack(), s, data.commandValidator, data.perUser, false, data.isRuleApp, null, data.override));
     }
 
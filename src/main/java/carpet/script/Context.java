@@ -12,7 +12,16 @@ public class Context
 {
     public enum Type
     {
-        NONE, VOID, BOOLEAN, NUMBER, STRING, LIST, ITERATOR, SIGNATURE, LOCALIZATION, LVALUE, MAPDEF
+        NONE, VOID, BOOLEAN, NUMBER, STRING, LIST, ITERATOR, SIGNATURE, LOCALIZATION, LVALUE, MAPDEF;
+
+        /**
+         * Type to evaluate the body of a function, a try block or another scope with. Lazy map and filter stages
+         * run their expressions only as they are iterated, so they can't be handed out of the scope that made them
+         */
+        public Type inScope()
+        {
+            return this == ITERATOR ? NONE : this;
+        }
     }
 
     public static final Type NONE = Type.NONE;
@@ -77,6 +86,18 @@ public class Context
         return ctx;
     }
 
+    /**
+     * Same as {@link #recreate()}, but with variables stored in a slotted frame of a compiled function
+     */
+    public Context recreate(FrameLayout layout)
+    {
+        Context ctx = duplicate();
+        ctx.threadContext = threadContext;
+        ctx.variables = layout.newFrame();
+        ctx.initialize();
+        return ctx;
+    }
+
     public void setThreadContext(ThreadValue callingThread)
     {
         this.threadContext = callingThread;
@@ -184,6 +205,13 @@ public class Context
             return null;
         }
 
+        @Override
+        public Context recreate(FrameLayout layout)
+        {
+            badProgrammer();
+            return null;
+        }
+
         @Override
         protected void initialize()
         {
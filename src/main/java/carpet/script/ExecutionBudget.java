@@ -0,0 +1,119 @@
+package carpet.script;
+
+import javax.annotation.Nullable;
+
+/**
+ * Opt-in time slicing of long computations on the main thread. A sliced job checks its time budget in function calls
+ * and operators, and once the slice for the current tick is used up, hands over to the server to run a tick
+ * right there, the same way game_tick() does, then carries on with a fresh slice.
+ * Code running inside these ticks, like events, is never sliced itself.
+ */
+public final class ExecutionBudget
+{
+    // reading the clock on each call would be too costly
+    private static final int CHECK_INTERVAL = 256;
+
+    // main thread only
+    @Nullable
+    private static ExecutionBudget current;
+    private static int countdown = CHECK_INTERVAL;
+    // ticks run by a sliced job can't start sliced jobs of their own
+    private static boolean ticking;
+
+    @FunctionalInterface
+    public interface TickRunner
+    {
+        /**
+         * Runs a server tick, or does nothing if ticks can't be run right now
+         *
+         * @return whether a tick was run
+         */
+        boolean runTick();
+    }
+
+    private final long sliceNanos;
+    private final TickRunner tickRunner;
+    private long deadline;
+    private int ticks;
+
+    private ExecutionBudget(long sliceNanos, TickRunner tickRunner)
+    {
+        this.sliceNanos = sliceNanos;
+        this.tickRunner = tickRunner;
+        this.deadline = System.nanoTime() + sliceNanos;
+    }
+
+    /**
+     * Called from the interpreter on the main thread, and from other long running loops there, like drawing shapes
+     */
+    public static void check()
+    {
+        if (current != null && --countdown <= 0)
+        {
+            countdown = CHECK_INTERVAL;
+            current.checkDeadline();
+        }
+    }
+
+    /**
+     * Checks the deadline right away, for long loops on the main thread that don't go through the interpreter, like bulk block writes
+     */
+    public static void checkNow()
+    {
+        if (current != null && ScriptHost.mainThread == Thread.currentThread())
+        {
+            countdown = CHECK_INTERVAL;
+            current.checkDeadline();
+        }
+    }
+
+    private void checkDeadline()
+    {
+        if (System.nanoTime() < deadline)
+        {
+            return;
+        }
+        current = null;
+        ticking = true;
+        try
+        {
+            if (tickRunner.runTick())
+            {
+                ticks++;
+            }
+        }
+        finally
+        {
+            ticking = false;
+            current = this;
+            deadline = System.nanoTime() + sliceNanos;
+        }
+    }
+
+    /**
+     * Runs a job on the main thread, spreading it over as many ticks as needed to stay within the time slice in each of them.
+     * Jobs started within a sliced job are part of the outer one.
+     *
+     * @return number of extra ticks the job ran through
+     */
+    public static int run(long sliceNanos, TickRunner tickRunner, Runnable job)
+    {
+        if (current != null || ticking || ScriptHost.mainThread != Thread.currentThread())
+        {
+            job.run();
+            return 0;
+        }
+        ExecutionBudget budget = new ExecutionBudget(sliceNanos, tickRunner);
+        current = budget;
+        countdown = CHECK_INTERVAL;
+        try
+        {
+            job.run();
+        }
+        finally
+        {
+            current = null;
+        }
+        return budget.ticks;
+    }
+}
@@ -27,10 +27,14 @@ import carpet.script.language.Loops;
 import carpet.script.language.Operators;
 import carpet.script.language.Sys;
 import carpet.script.language.Threading;
+import carpet.script.utils.ParseCache;
+import carpet.script.value.CompletionValue;
+import carpet.script.value.FunctionUnpackedArgumentsValue;
 import carpet.script.value.FunctionValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.StringValue;
 import carpet.script.value.Value;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.Stack;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
@@ -43,6 +47,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -52,6 +57,7 @@ import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleToLongFunction;
 import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 import java.util.function.LongBinaryOperator;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -99,6 +105,11 @@ public class Expression
     @Nullable
     private ExpressionNode root = null;
 
+    /**
+     * Parsed code shared by all expressions, weighed by the length of the code
+     */
+    private static final ParseCache<ParsedCode> parsedCode = new ParseCache<>("code", 1 << 24);
+
     /**
      * script specific operatos and built-in functions
      */
@@ -133,6 +144,50 @@ public class Expression
         functionalAliases.put(operator, function);
     }
 
+    /**
+     * Code scope that a return, break or continue can complete to by returning a {@link CompletionValue}
+     * instead of throwing, as proven by the optimizer
+     */
+    public enum ControlScope
+    {
+        NONE, FUNCTION, LOOP
+    }
+
+    private final Map<String, Pair<ControlScope, ILazyFunction>> controlSignals = new Object2ObjectOpenHashMap<>();
+    private final Map<String, IntUnaryOperator> loopBodies = new Object2ObjectOpenHashMap<>();
+    boolean localControlFlow = true;
+
+    /**
+     * Registers the non-throwing variant of a control flow function, used when its target is known to be local
+     */
+    public void addControlSignal(String name, ControlScope scope, Function<List<Value>, CompletionValue> fun)
+    {
+        controlSignals.put(name, Pair.of(scope, new AbstractFunction(-1, name)
+        {
+            @Override
+            public boolean pure()
+            {
+                return false;
+            }
+
+            @Override
+            public Value eval(List<Value> parameters)
+            {
+                return fun.apply(parameters);
+            }
+        }));
+    }
+
+    /**
+     * Marks a loop function that handles break and continue completions returned from its body
+     *
+     * @param bodyLocator position of the loop body given the number of arguments
+     */
+    public void addLoopBody(String name, IntUnaryOperator bodyLocator)
+    {
+        loopBodies.put(name, bodyLocator);
+    }
+
     private final Map<String, Value> constants = Map.of(
             "euler", Arithmetic.euler,
             "pi", Arithmetic.PI,
@@ -799,13 +854,13 @@ public class Expression
 
     public void addMathematicalUnaryIntFunction(String name, DoubleToLongFunction fun)
     {
-        addUnaryFunction(name, (v) -> new NumericValue(fun.applyAsLong(NumericValue.asNumber(v).getDouble())));
+        addUnaryFunction(name, (v) -> NumericValue.of(fun.applyAsLong(NumericValue.asNumber(v).getDouble())));
     }
 
     public void addMathematicalBinaryIntFunction(String name, LongBinaryOperator fun)
     {
         addBinaryFunction(name, (w, v) ->
-                new NumericValue(fun.applyAsLong(NumericValue.asNumber(w).getLong(), NumericValue.asNumber(v).getLong())));
+                NumericValue.of(fun.applyAsLong(NumericValue.asNumber(w).getLong(), NumericValue.asNumber(v).getLong())));
     }
 
     public void addMathematicalBinaryFunction(String name, DoubleBinaryOperator fun)
@@ -887,35 +942,92 @@ public class Expression
 
     public void addContextFunction(String name, int num_params, TriFunction<Context, Context.Type, List<Value>, Value> fun)
     {
-        functions.put(name, new AbstractLazyFunction(num_params, name)
+        addContextFunction(name, num_params, fun, null);
+    }
+
+    /**
+     * Prepares calls of a function from a call site where some arguments are constant, like names of features,
+     * so work that depends only on them is done once, when the call is compiled
+     */
+    @FunctionalInterface
+    public interface CallSpecializer
+    {
+        /**
+         * @param constants values of arguments that are constant, null for the others
+         * @return function for calls from this site, or null to call the function as usual
+         */
+        @Nullable
+        TriFunction<Context, Context.Type, List<Value>, Value> specialize(List<Value> constants);
+    }
+
+    public void addContextFunction(String name, int num_params, TriFunction<Context, Context.Type, List<Value>, Value> fun, @Nullable CallSpecializer specializer)
+    {
+        functions.put(name, new ContextFunction(num_params, name, fun, specializer));
+    }
+
+    private static class ContextFunction extends AbstractLazyFunction
+    {
+        private final TriFunction<Context, Context.Type, List<Value>, Value> fun;
+        @Nullable
+        private final CallSpecializer specializer;
+
+        private ContextFunction(int num_params, String name, TriFunction<Context, Context.Type, List<Value>, Value> fun, @Nullable CallSpecializer specializer)
         {
-            @Override
-            public boolean pure()
+            super(num_params, name);
+            this.fun = fun;
+            this.specializer = specializer;
+        }
+
+        @Override
+        public boolean pure()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean transitive()
+        {
+            return false;
+        }
+
+        @Override
+        public LazyValue lazyEval(Context c, Context.Type i, Expression e, Token t, List<LazyValue> lazyParams)
+        {
+            ILazyFunction.checkInterrupts();
+            try
             {
-                return false;
+                Value ret = fun.apply(c, i, unpackArgs(lazyParams, c, Context.NONE));
+                return (cc, tt) -> ret;
             }
-
-            @Override
-            public boolean transitive()
+            catch (RuntimeException exc)
             {
-                return false;
+                throw handleCodeException(c, exc, e, t);
             }
+        }
+    }
 
-            @Override
-            public LazyValue lazyEval(Context c, Context.Type i, Expression e, Token t, List<LazyValue> lazyParams)
+    /**
+     * @return function for calls to it from the node, specialized for its constant arguments if the function supports it
+     */
+    private ILazyFunction specialize(ILazyFunction f, List<ExpressionNode> args)
+    {
+        if (!(f instanceof ContextFunction function) || function.specializer == null)
+        {
+            return f;
+        }
+        List<Value> constants = new ArrayList<>(args.size());
+        for (ExpressionNode arg : args)
+        {
+            Value value = arg.op instanceof LazyValue.Constant constant ? constant.get() : null;
+            // unpacked arguments move the others around
+            if (value instanceof FunctionUnpackedArgumentsValue)
             {
-                ILazyFunction.checkInterrupts();
-                try
-                {
-                    Value ret = fun.apply(c, i, unpackArgs(lazyParams, c, Context.NONE));
-                    return (cc, tt) -> ret;
-                }
-                catch (RuntimeException exc)
-                {
-                    throw handleCodeException(c, exc, e, t);
-                }
+                return f;
             }
-        });
+            constants.add(value);
+        }
+        TriFunction<Context, Context.Type, List<Value>, Value> specialized = function.specializer.specialize(constants);
+        return specialized == null ? f : new ContextFunction(function.getNumParams(), function.getName(), specialized, null);
     }
 
     public void addTypedContextFunction(String name, int num_params, Context.Type reqType, TriFunction<Context, Context.Type, List<Value>, Value> fun)
@@ -1256,6 +1368,16 @@ public class Expression
     }
 
     public Pair<Value, ExpressionNode> executeAndEvaluate(Context c, boolean optimize, LoadOverride override, @Nullable Consumer<String> logger)
+    {
+        parse(c, optimize, override, logger);
+        return Pair.of(evaluatePartial(() -> ast, c, Context.Type.NONE), root);
+    }
+
+    /**
+     * Parses the code without running it. Other expressions with the same code find it parsed as well,
+     * so apps can be parsed ahead, off the main thread
+     */
+    public void parse(Context c, boolean optimize, LoadOverride override, @Nullable Consumer<String> logger)
     {
         if (ast == null)
         {
@@ -1269,7 +1391,6 @@ public class Expression
             ast = ret.getRight();
             root = ret.getLeft();
         }
-        return Pair.of(evaluatePartial(() -> ast, c, Context.Type.NONE), root);
     }
 
     public Value evaluatePartial(Supplier<LazyValue> exprProvider, Context c, Context.Type expectedType)
@@ -1474,8 +1595,9 @@ public class Expression
                         nodeStack.pop();
                     }
                     List<LazyValue> params = p.stream().map(n -> n.op).collect(Collectors.toList());
+                    ILazyFunction call = specialize(f, p);
                     ExpressionNode newNode = new ExpressionNode(
-                            (c, t) -> f.lazyEval(c, t, this, token, params).evalValue(c, t),
+                            (c, t) -> call.lazyEval(c, t, this, token, params).evalValue(c, t),
                             p, token
                     );
                     token.node = newNode;
@@ -1527,14 +1649,54 @@ public class Expression
         return nodeStack.pop();
     }
 
-    private Pair<ExpressionNode, LazyValue> getAST(Context context, boolean optimize, boolean functional, @Nullable Consumer<String> logger)
+    /**
+     * Key of the parsed code in the shared cache, since the same code parses the same way with the same functions and operators
+     */
+    private String parsedCodeKey(boolean optimize, boolean functional)
     {
+        long fingerprint = 0;
+        for (String name : functions.keySet())
+        {
+            fingerprint += HashCommon.mix(2L * name.hashCode());
+        }
+        for (String name : operators.keySet())
+        {
+            fingerprint += HashCommon.mix(2L * name.hashCode() + 1);
+        }
+        return (optimize ? "o" : "") + (functional ? "f" : "") + (allowComments ? "c" : "") + (allowNewlineSubstitutions ? "n" : "")
+                + ':' + functions.size() + ':' + operators.size() + ':' + Long.toHexString(fingerprint) + '\n' + expression;
+    }
+
+    Pair<ExpressionNode, LazyValue> getAST(Context context, boolean optimize, boolean functional, @Nullable Consumer<String> logger)
+    {
+        // functional only code is run off the parse tree as it comes out of the optimizer, and logging optimizations needs them to happen
+        boolean shared = logger == null && (optimize || !functional);
+        String key = shared ? parsedCodeKey(optimize, functional) : null;
+        if (shared)
+        {
+            ParsedCode code = parsedCode.getIfPresent(key);
+            if (code != null)
+            {
+                if (optimize)
+                {
+                    ExpressionNode root = code.tree();
+                    return Pair.of(root, extractOp(new Context.ContextForErrorReporting(context), root, Context.Type.NONE, null, ControlScope.NONE));
+                }
+                ExpressionNode root = RPNToParseTree(code.tokens(), context);
+                return Pair.of(root, root.op);
+            }
+        }
         Tokenizer tokenizer = new Tokenizer(context, this, expression, allowComments, allowNewlineSubstitutions);
         // stripping lousy but acceptable semicolons
         List<Token> cleanedTokens = Tokenizer.postProcess(tokenizer.parseTokens());
 
         List<Token> rpn = shuntingYard(context, cleanedTokens);
         validate(context, rpn);
+        if (shared && !optimize)
+        {
+            // before building the tree changes the tokens
+            parsedCode.put(key, ParsedCode.ofTokens(rpn));
+        }
         ExpressionNode root = RPNToParseTree(rpn, context);
         if (!optimize && !functional)
         {
@@ -1548,7 +1710,12 @@ public class Expression
         if (!optimize) {
             return Pair.of(root, root.op);
         }
-        return Pair.of(root, extractOp(optimizeOnlyContext, root, Context.Type.NONE));
+        ParsedCode code = shared ? ParsedCode.ofTree(root) : null;
+        if (code != null)
+        {
+            parsedCode.put(key, code);
+        }
+        return Pair.of(root, extractOp(optimizeOnlyContext, root, Context.Type.NONE, null, ControlScope.NONE));
     }
 
     private void optimizeTree(ExpressionNode root, Context optimizeOnlyContext, @Nullable Consumer<String> logger, boolean optimize, boolean toFunctional) {
@@ -1904,7 +2071,7 @@ public class Expression
         return true;
     }
 
-    private LazyValue extractOp(Context ctx, ExpressionNode node, Context.Type expectedType)
+    LazyValue extractOp(Context ctx, ExpressionNode node, Context.Type expectedType, @Nullable FrameLayout frame, ControlScope scope)
     {
         if (node.op instanceof LazyValue.Constant)
         {
@@ -1928,24 +2095,28 @@ public class Expression
             {
                 ILazyOperator op = operators.get(token.surface);
                 Context.Type requestedType = op.staticType(expectedType);
-                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType);
+                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType, frame, ControlScope.NONE);
                 return (c, t) -> op.lazyEval(c, t, this, token, arg, null).evalValue(c, t);
             }
             case OPERATOR:
             {
                 ILazyOperator op = operators.get(token.surface);
                 Context.Type requestedType = op.staticType(expectedType);
-                LazyValue arg = extractOp(ctx, node.args.get(0), requestedType);
-                LazyValue arh = extractOp(ctx, node.args.get(1), requestedType);
+                LazyValue arg = extractArgument(ctx, node, 0, requestedType, expectedType, frame, scope);
+                LazyValue arh = extractArgument(ctx, node, 1, requestedType, expectedType, frame, scope);
                 return (c, t) -> op.lazyEval(c, t, this, token, arg, arh).evalValue(c, t);
             }
             case VARIABLE:
-                return (c, t) -> getOrSetAnyVariable(c, token.surface).evalValue(c, t);
+                return extractVariable(token.surface, frame);
             case FUNCTION:
             {
-                ILazyFunction f = functions.get(token.surface);
+                ILazyFunction f = specialize(function(token, scope), node.args);
                 Context.Type requestedType = f.staticType(expectedType);
-                List<LazyValue> params = node.args.stream().map(n -> extractOp(ctx, n, requestedType)).collect(Collectors.toList());
+                List<LazyValue> params = new ArrayList<>(node.args.size());
+                for (int i = 0; i < node.args.size(); i++)
+                {
+                    params.add(extractArgument(ctx, node, i, requestedType, expectedType, frame, scope));
+                }
                 return (c, t) -> f.lazyEval(c, t, this, token, params).evalValue(c, t);
             }
             case CONSTANT:
@@ -1956,6 +2127,202 @@ public class Expression
         }
     }
 
+    /**
+     * Extracts an argument of a node, giving bodies of function definitions their own frame layout,
+     * and figuring out where return, break and continue can complete without throwing
+     */
+    private LazyValue extractArgument(Context ctx, ExpressionNode node, int index, Context.Type requestedType, Context.Type expectedType, @Nullable FrameLayout frame, ControlScope scope)
+    {
+        ExpressionNode arg = node.args.get(index);
+        if (index == 1 && expectedType != Context.Type.MAPDEF && FrameLayout.isDefinition(node))
+        {
+            FrameLayout bodyFrame = FrameLayout.of(node.args.get(0), arg);
+            return new FrameLayout.Body(bodyFrame, extractOp(ctx, arg, requestedType, bodyFrame, ControlScope.FUNCTION),
+                    () -> ExpressionCompiler.compile(this, ctx, arg, requestedType, bodyFrame));
+        }
+        return extractOp(ctx, arg, requestedType, frame, argumentScope(node, index, scope));
+    }
+
+    /**
+     * @return control scope of an argument of a node, i.e. whether completions from it reach the same target as the node
+     */
+    ControlScope argumentScope(ExpressionNode node, int index, ControlScope scope)
+    {
+        String symbol = node.token.surface;
+        if (node.token.type == Token.TokenType.FUNCTION && loopBodies.containsKey(symbol))
+        {
+            return loopBodies.get(symbol).applyAsInt(node.args.size()) == index ? ControlScope.LOOP : ControlScope.NONE;
+        }
+        if (symbol.equals(";") || symbol.equals("then"))
+        {
+            return scope;
+        }
+        if (symbol.equals("if") && (index % 2 == 1 || index == node.args.size() - 1))
+        {
+            // branches, not conditions
+            return scope;
+        }
+        return ControlScope.NONE;
+    }
+
+    ILazyOperator operator(String surface)
+    {
+        return operators.get(surface);
+    }
+
+    /**
+     * @return implementation of a function node, taking local variants of control flow functions into account
+     */
+    ILazyFunction function(Token token, ControlScope scope)
+    {
+        Pair<ControlScope, ILazyFunction> signal = localControlFlow ? controlSignals.get(token.surface) : null;
+        return signal != null && signal.getLeft() == scope ? signal.getRight() : functions.get(token.surface);
+    }
+
+    // pure built-ins that still reach outside of the call, or keep state that is not thread safe
+    private static final Set<String> SHARED_STATE_FUNCTIONS = Set.of("print", "pos", "perlin", "simplex", "task_value", "task_join", "task_completed");
+    // not pure only because they bind local variables, which stay in the frame of each call
+    private static final Set<String> LOCAL_CONSTRUCTS = Set.of("if", "return", "break", "continue", "loop", "while", "c_for", "for", "map", "filter", "first", "all", "reduce");
+    private static final Set<String> CONTROL_SIGNALS = Set.of("return", "break", "continue");
+    // pure, but tell apart values that are otherwise equal, like blocks at different positions
+    private static final Set<String> IDENTITY_FUNCTIONS = Set.of("hash_code");
+
+    /**
+     * @return true if the function provably computes its result only from its arguments, i.e. its body and all user functions it calls
+     * only use pure built-ins and assign local variables, so calls to it can run on several threads at once
+     */
+    public static boolean isParallelSafe(ScriptHost host, FunctionValue function)
+    {
+        return isParallelSafe(host, function, new HashSet<>(), Set.of());
+    }
+
+    /**
+     * @param readers impure functions that are fine when given a single variable, since they only read the value they are given
+     */
+    public static boolean isParallelSafe(ScriptHost host, FunctionValue function, Set<String> readers)
+    {
+        return isParallelSafe(host, function, new HashSet<>(), readers);
+    }
+
+    private static boolean isParallelSafe(ScriptHost host, FunctionValue function, Set<FunctionValue> visited, Set<String> readers)
+    {
+        if (!visited.add(function))
+        {
+            return true; // recursion, checked already
+        }
+        ExpressionNode definition = function.getToken().node;
+        return definition != null && definition.args.size() == 2
+                && isSideEffectFree(host, function.getExpression(), function.getModule(), definition.args.get(1), visited, null, readers);
+    }
+
+    /**
+     * @param varying variables that change between evaluations of the expression
+     * @param readers impure functions that are fine when given a single variable, since they only read the value they are given
+     * @return true if the expression has no side effects and its value only depends on the variables it reads, other than the varying ones,
+     * so it evaluates the same each time they are the same. Unlike function bodies, it can't assign variables or break out of loops
+     */
+    public static boolean isInvariant(ScriptHost host, Expression expression, ExpressionNode node, Set<String> varying, Set<String> readers)
+    {
+        return isSideEffectFree(host, expression, expression.module, node, new HashSet<>(), varying, readers);
+    }
+
+    /**
+     * @return true if the expression defines functions, which can capture variables of the defining scope with outer()
+     */
+    public static boolean definesFunctions(ExpressionNode node)
+    {
+        if (FrameLayout.isDefinition(node))
+        {
+            return true;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            if (definesFunctions(arg))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // varying is null for function bodies, where assignments and control flow stay local to the call
+    private static boolean isSideEffectFree(ScriptHost host, Expression expression, @Nullable Module module, ExpressionNode node, Set<FunctionValue> visited,
+                                            @Nullable Set<String> varying, Set<String> readers)
+    {
+        Token.TokenType type = node.token.type;
+        if (node.op instanceof LazyValue.Constant || type.isConstant())
+        {
+            return true;
+        }
+        String symbol = node.token.surface;
+        if (type == Token.TokenType.VARIABLE)
+        {
+            return !symbol.startsWith("global_") && (varying == null || !varying.contains(symbol));
+        }
+        if (!type.isFunctional())
+        {
+            return false;
+        }
+        Fluff.EvalNode operation = (type == Token.TokenType.FUNCTION ? expression.functions : expression.operators).get(symbol);
+        if (operation == null)
+        {
+            FunctionValue callee = type == Token.TokenType.FUNCTION ? host.getFunction(module, symbol) : null;
+            if (callee == null || !isParallelSafe(host, callee, visited, readers))
+            {
+                return false;
+            }
+        }
+        else if (symbol.equals("="))
+        {
+            ExpressionNode target = node.args.get(0);
+            return varying == null && target.token.type == Token.TokenType.VARIABLE && !target.token.surface.startsWith("global_")
+                    && isSideEffectFree(host, expression, module, node.args.get(1), visited, null, readers);
+        }
+        else if (varying != null && IDENTITY_FUNCTIONS.contains(symbol))
+        {
+            return false;
+        }
+        else if (!(operation.pure() && !SHARED_STATE_FUNCTIONS.contains(symbol))
+                && !(LOCAL_CONSTRUCTS.contains(symbol) && (varying == null || !CONTROL_SIGNALS.contains(symbol)))
+                && !(readers.contains(symbol) && node.args.size() == 1 && node.args.get(0).token.type == Token.TokenType.VARIABLE))
+        {
+            return false;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            if (!isSideEffectFree(host, expression, module, arg, visited, varying, readers))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LazyValue extractVariable(String name, @Nullable FrameLayout frame)
+    {
+        int slot = frame == null ? -1 : frame.slotOf(name);
+        if (slot < 0)
+        {
+            return (c, t) -> getOrSetAnyVariable(c, name).evalValue(c, t);
+        }
+        return (c, t) -> {
+            if (c.variables instanceof FrameLayout.Frame slotted && slotted.layout == frame)
+            {
+                Value value = slotted.values[slot];
+                if (value != null)
+                {
+                    return value;
+                }
+                LazyValue variable = slotted.slots[slot];
+                if (variable != null)
+                {
+                    return variable.evalValue(c, t);
+                }
+            }
+            return getOrSetAnyVariable(c, name).evalValue(c, t);
+        };
+    }
+
     private void validate(Context c, List<Token> rpn)
     {
         /*-
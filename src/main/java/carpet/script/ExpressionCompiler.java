@@ -0,0 +1,441 @@
+package carpet.script;
+
+import carpet.script.Fluff.AbstractFunction;
+import carpet.script.Fluff.AbstractUnaryOperator;
+import carpet.script.Fluff.IFunction;
+import carpet.script.Fluff.ILazyFunction;
+import carpet.script.Fluff.ILazyOperator;
+import carpet.script.Fluff.IOperator;
+import carpet.script.exception.InternalExpressionException;
+import carpet.script.value.CompletionValue;
+import carpet.script.value.FunctionUnpackedArgumentsValue;
+import carpet.script.value.ListValue;
+import carpet.script.value.MapValue;
+import carpet.script.value.NullValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Second execution tier for hot user defined functions. Turns the optimized tree of a function body
+ * into a hidden class, where each compiled node calls the built-in operator or function directly from its own call site,
+ * instead of going through the shared, megamorphic lambdas of the interpreter.
+ * Nodes the compiler doesn't handle are evaluated by their interpreted code, so compiled bodies behave the same,
+ * and if anything goes wrong during compilation the function simply stays interpreted.
+ */
+public class ExpressionCompiler
+{
+    /**
+     * number of calls after which function bodies get compiled, non-positive values disable compilation
+     */
+    public static int compileThreshold = Integer.getInteger("carpet.scarpet.compileThreshold", 1000);
+    private static final AtomicLong compiledBodies = new AtomicLong();
+    private static final AtomicLong failedBodies = new AtomicLong();
+
+    private static final String CLASS_NAME = Type.getInternalName(ExpressionCompiler.class) + "$Compiled";
+    private static final String CONTEXT_TYPE = Type.getInternalName(Context.Type.class);
+    private static final String VALUE = Type.getInternalName(Value.class);
+    private static final String EVAL_DESCRIPTOR = Type.getMethodDescriptor(Type.getType(Value.class), Type.getType(Context.class), Type.getType(Context.Type.class));
+    private static final String VALUE_PACKAGE = VALUE.substring(0, VALUE.lastIndexOf('/') + 1);
+    private static final int EXCEPTION_LOCAL = 3;
+
+    private final Expression expression;
+    private final Context ctx;
+    private final FrameLayout frame;
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Class<?>> constantTypes = new ArrayList<>();
+    private MethodVisitor mv;
+    private int compiledNodes;
+
+    private ExpressionCompiler(Expression expression, Context ctx, FrameLayout frame)
+    {
+        this.expression = expression;
+        this.ctx = ctx;
+        this.frame = frame;
+    }
+
+    /**
+     * Compiles a function body
+     *
+     * @return compiled body, or null if it can't or doesn't need to be compiled
+     */
+    @Nullable
+    public static LazyValue compile(Expression expression, Context ctx, Expression.ExpressionNode body, Context.Type expectedType, FrameLayout frame)
+    {
+        try
+        {
+            LazyValue compiled = new ExpressionCompiler(expression, ctx, frame).compile(body, expectedType);
+            if (compiled != null)
+            {
+                compiledBodies.incrementAndGet();
+            }
+            return compiled;
+        }
+        catch (Throwable exc)
+        {
+            failedBodies.incrementAndGet();
+            CarpetScriptServer.LOG.warn("Failed to compile function body at line " + (body.token.lineno + 1) + ", keeping it interpreted", exc);
+            return null;
+        }
+    }
+
+    /**
+     * Function bodies compiled so far, and ones that failed to compile and stay interpreted,
+     * reported in system_info('scarpet_compiled_functions')
+     */
+    public static Value statistics()
+    {
+        return MapValue.wrap(Map.of(
+                StringValue.of("compiled"), NumericValue.of(compiledBodies.get()),
+                StringValue.of("failed"), NumericValue.of(failedBodies.get())
+        ));
+    }
+
+    @Nullable
+    private LazyValue compile(Expression.ExpressionNode body, Context.Type expectedType) throws Throwable
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS)
+        {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2)
+            {
+                // only values meet on the stack, no need to load classes to find out
+                if (type1.startsWith(VALUE_PACKAGE) && type2.startsWith(VALUE_PACKAGE))
+                {
+                    return VALUE;
+                }
+                return "java/lang/Object";
+            }
+        };
+        cw.visit(V17, ACC_FINAL | ACC_SUPER, CLASS_NAME, null, "java/lang/Object", new String[]{Type.getInternalName(LazyValue.class)});
+
+        mv = cw.visitMethod(ACC_PUBLIC, "evalValue", EVAL_DESCRIPTOR, null, null);
+        mv.visitCode();
+        generate(body, expectedType, null, Expression.ControlScope.FUNCTION);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        if (compiledNodes == 0)
+        {
+            return null;
+        }
+
+        mv = cw.visitMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        for (int i = 0; i < constants.size(); i++)
+        {
+            String type = Type.getDescriptor(constantTypes.get(i));
+            cw.visitField(ACC_PRIVATE | ACC_FINAL, "k" + i, type, null, null).visitEnd();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(AALOAD);
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(constantTypes.get(i)));
+            mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "k" + i, type);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(cw.toByteArray(), true);
+        return (LazyValue) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                .invoke(constants.toArray());
+    }
+
+    /**
+     * Generates code leaving the value of the node on the stack
+     *
+     * @param expectedType static type the interpreter would extract the node with
+     * @param runtimeType  type the node is evaluated with, null for the type the body was called with
+     * @param scope        control scope of the node
+     */
+    private void generate(Expression.ExpressionNode node, Context.Type expectedType, @Nullable Context.Type runtimeType, Expression.ControlScope scope)
+    {
+        if (node.op instanceof LazyValue.Constant constant)
+        {
+            loadConstant(constant.get(), Value.class);
+            if (!node.token.type.isConstant())
+            {
+                mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "fromConstant", "()L" + VALUE + ";", false);
+            }
+            return;
+        }
+        if (!(node.op instanceof LazyValue.ContextFreeLazyValue) && generateNode(node, expectedType, runtimeType, scope))
+        {
+            compiledNodes++;
+            return;
+        }
+        // interpreted fallback
+        loadConstant(expression.extractOp(ctx, node, expectedType, frame, scope), LazyValue.class);
+        mv.visitVarInsn(ALOAD, 1);
+        loadType(runtimeType);
+        mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(LazyValue.class), "evalValue", EVAL_DESCRIPTOR, true);
+    }
+
+    private boolean generateNode(Expression.ExpressionNode node, Context.Type expectedType, @Nullable Context.Type runtimeType, Expression.ControlScope scope)
+    {
+        Token token = node.token;
+        switch (token.type)
+        {
+            case VARIABLE:
+            {
+                int slot = frame.slotOf(token.surface);
+                if (slot < 0)
+                {
+                    return false;
+                }
+                mv.visitVarInsn(ALOAD, 1);
+                loadType(runtimeType);
+                loadConstant(frame, FrameLayout.class);
+                mv.visitLdcInsn(slot);
+                loadConstant(expression, Expression.class);
+                loadConstant(token.surface, String.class);
+                invokeHelper("readSlot", Context.class, Context.Type.class, FrameLayout.class, int.class, Expression.class, String.class);
+                return true;
+            }
+            case UNARY_OPERATOR:
+            {
+                if (!(expression.operator(token.surface) instanceof AbstractUnaryOperator op) || node.args.size() != 1)
+                {
+                    return false;
+                }
+                loadConstant(op, AbstractUnaryOperator.class);
+                generate(node.args.get(0), op.staticType(expectedType), Context.Type.NONE, Expression.ControlScope.NONE);
+                guarded(token, () -> mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(AbstractUnaryOperator.class), "evalUnary", "(L" + VALUE + ";)L" + VALUE + ";", false));
+                return true;
+            }
+            case OPERATOR:
+            {
+                ILazyOperator lazyOp = expression.operator(token.surface);
+                if (token.surface.equals(";"))
+                {
+                    return generateSequence(node, lazyOp.staticType(expectedType), runtimeType, scope);
+                }
+                if (!(lazyOp instanceof IOperator op) || lazyOp instanceof AbstractUnaryOperator || node.args.size() != 2)
+                {
+                    return false;
+                }
+                loadConstant(op, IOperator.class);
+                generate(node.args.get(0), op.staticType(expectedType), Context.Type.NONE, Expression.ControlScope.NONE);
+                generate(node.args.get(1), op.staticType(expectedType), Context.Type.NONE, Expression.ControlScope.NONE);
+                guarded(token, () -> mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(IOperator.class), "eval", "(L" + VALUE + ";L" + VALUE + ";)L" + VALUE + ";", true));
+                return true;
+            }
+            case FUNCTION:
+            {
+                ILazyFunction lazyFunction = expression.function(token, scope);
+                if (token.surface.equals("then"))
+                {
+                    return generateSequence(node, lazyFunction.staticType(expectedType), runtimeType, scope);
+                }
+                if (token.surface.equals("if"))
+                {
+                    return generateIf(node, lazyFunction.staticType(expectedType), runtimeType, scope);
+                }
+                if (!(lazyFunction instanceof AbstractFunction function))
+                {
+                    return false;
+                }
+                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ILazyFunction.class), "checkInterrupts", "()V", true);
+                loadConstant(function, IFunction.class);
+                loadConstant(function, AbstractFunction.class);
+                mv.visitLdcInsn(node.args.size());
+                mv.visitTypeInsn(ANEWARRAY, VALUE);
+                for (int i = 0; i < node.args.size(); i++)
+                {
+                    mv.visitInsn(DUP);
+                    mv.visitLdcInsn(i);
+                    generate(node.args.get(i), function.staticType(expectedType), Context.Type.NONE, Expression.ControlScope.NONE);
+                    mv.visitInsn(AASTORE);
+                }
+                guarded(token, () -> {
+                    invokeHelper("arguments", AbstractFunction.class, Value[].class);
+                    mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(IFunction.class), "eval", "(Ljava/util/List;)L" + VALUE + ";", true);
+                });
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * ; and then, passing completions of the enclosing function straight to the return of the body
+     */
+    private boolean generateSequence(Expression.ExpressionNode node, Context.Type requestedType, @Nullable Context.Type runtimeType, Expression.ControlScope scope)
+    {
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ILazyFunction.class), "checkInterrupts", "()V", true);
+        int last = node.args.size() - 1;
+        for (int i = 0; i < last; i++)
+        {
+            Expression.ControlScope argScope = expression.argumentScope(node, i, scope);
+            generate(node.args.get(i), requestedType, Context.Type.VOID, argScope);
+            if (argScope == Expression.ControlScope.FUNCTION)
+            {
+                Label next = new Label();
+                mv.visitInsn(DUP);
+                mv.visitTypeInsn(INSTANCEOF, Type.getInternalName(CompletionValue.class));
+                mv.visitJumpInsn(IFEQ, next);
+                mv.visitInsn(ARETURN);
+                mv.visitLabel(next);
+            }
+            mv.visitInsn(POP);
+        }
+        generate(node.args.get(last), requestedType, runtimeType, expression.argumentScope(node, last, scope));
+        return true;
+    }
+
+    private boolean generateIf(Expression.ExpressionNode node, Context.Type requestedType, @Nullable Context.Type runtimeType, Expression.ControlScope scope)
+    {
+        int size = node.args.size();
+        if (size < 2)
+        {
+            return false;
+        }
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ILazyFunction.class), "checkInterrupts", "()V", true);
+        Label end = new Label();
+        for (int i = 0; i + 1 < size; i += 2)
+        {
+            Label next = new Label();
+            generate(node.args.get(i), requestedType, Context.Type.BOOLEAN, expression.argumentScope(node, i, scope));
+            mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "getBoolean", "()Z", false);
+            mv.visitJumpInsn(IFEQ, next);
+            generate(node.args.get(i + 1), requestedType, runtimeType, expression.argumentScope(node, i + 1, scope));
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(next);
+        }
+        if (size % 2 == 1)
+        {
+            generate(node.args.get(size - 1), requestedType, runtimeType, expression.argumentScope(node, size - 1, scope));
+        }
+        else
+        {
+            mv.visitFieldInsn(GETSTATIC, VALUE, "NULL", Type.getDescriptor(NullValue.class));
+        }
+        mv.visitLabel(end);
+        return true;
+    }
+
+    /**
+     * Wraps the call to a built-in, reporting its errors against the token of the node like the interpreter does
+     */
+    private void guarded(Token token, Runnable call)
+    {
+        Label start = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        Label done = new Label();
+        mv.visitTryCatchBlock(start, end, handler, "java/lang/RuntimeException");
+        mv.visitLabel(start);
+        call.run();
+        mv.visitLabel(end);
+        mv.visitJumpInsn(GOTO, done);
+        mv.visitLabel(handler);
+        mv.visitVarInsn(ASTORE, EXCEPTION_LOCAL);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, EXCEPTION_LOCAL);
+        loadConstant(expression, Expression.class);
+        loadConstant(token, Token.class);
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Expression.class), "handleCodeException", Type.getMethodDescriptor(
+                Type.getType(RuntimeException.class), Type.getType(Context.class), Type.getType(RuntimeException.class), Type.getType(Expression.class), Type.getType(Token.class)
+        ), false);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(done);
+    }
+
+    private void loadType(@Nullable Context.Type type)
+    {
+        if (type == null)
+        {
+            mv.visitVarInsn(ALOAD, 2);
+        }
+        else
+        {
+            mv.visitFieldInsn(GETSTATIC, CONTEXT_TYPE, type.name(), "L" + CONTEXT_TYPE + ";");
+        }
+    }
+
+    private void loadConstant(Object value, Class<?> type)
+    {
+        int index = constants.size();
+        constants.add(value);
+        constantTypes.add(type);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, CLASS_NAME, "k" + index, Type.getDescriptor(type));
+    }
+
+    private void invokeHelper(String name, Class<?>... parameters)
+    {
+        try
+        {
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ExpressionCompiler.class), name,
+                    Type.getMethodDescriptor(ExpressionCompiler.class.getMethod(name, parameters)), false);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Slotted variable read of compiled code, same as the interpreted one
+     */
+    public static Value readSlot(Context c, Context.Type t, FrameLayout layout, int slot, Expression e, String name)
+    {
+        if (c.variables instanceof FrameLayout.Frame slotted && slotted.layout == layout)
+        {
+            Value value = slotted.values[slot];
+            if (value != null)
+            {
+                return value;
+            }
+            LazyValue variable = slotted.slots[slot];
+            if (variable != null)
+            {
+                return variable.evalValue(c, t);
+            }
+        }
+        return e.getOrSetAnyVariable(c, name).evalValue(c, t);
+    }
+
+    /**
+     * Unpacks and validates arguments of an eager function called from compiled code
+     */
+    public static List<Value> arguments(AbstractFunction function, Value[] values)
+    {
+        List<Value> args = new ArrayList<>(values.length);
+        for (Value value : values)
+        {
+            if (value instanceof FunctionUnpackedArgumentsValue)
+            {
+                args.addAll(((ListValue) value).getItems());
+            }
+            else
+            {
+                args.add(value);
+            }
+        }
+        if (!function.numParamsVaries() && function.getNumParams() != args.size())
+        {
+            throw new InternalExpressionException("Function " + function.getName() + " expected " + function.getNumParams() + " parameters, got " + args.size());
+        }
+        return args;
+    }
+}
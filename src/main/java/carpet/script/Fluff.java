@@ -74,9 +74,16 @@ public abstract class Fluff
 
         static void checkInterrupts()
         {
-            if (ScriptHost.mainThread != Thread.currentThread() && Thread.currentThread().isInterrupted())
+            if (ScriptHost.mainThread != Thread.currentThread())
             {
-                throw new InternalExpressionException("Thread interrupted");
+                if (Thread.currentThread().isInterrupted())
+                {
+                    throw new InternalExpressionException("Thread interrupted");
+                }
+            }
+            else
+            {
+                ExecutionBudget.check();
             }
         }
         // lazy function has a chance to change execution based on context
@@ -0,0 +1,399 @@
+package carpet.script;
+
+import carpet.script.value.Value;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Compile time assignment of local variables of a function body to integer slots.
+ * Function calls with a known layout use an array backed {@link Frame} instead of a fresh {@link HashMap},
+ * and variable reads resolved at compile time go straight to the slot. Anything that is not known upfront
+ * (var(), vars(), undef(), outer() captures, variables introduced by built-ins) still works through the
+ * regular {@link Map} interface of the frame, with unknown names kept in an overflow map.
+ */
+public class FrameLayout
+{
+    /**
+     * variables implicitly bound by the language and its loops and iterators, always reserved in front
+     */
+    private static final List<String> IMPLICIT = List.of("_", "_i", "_a", "_x", "_y", "_z");
+
+    private final List<String> names = new ArrayList<>();
+    private final Object2IntOpenHashMap<String> slots = new Object2IntOpenHashMap<>();
+
+    private FrameLayout()
+    {
+        slots.defaultReturnValue(-1);
+        IMPLICIT.forEach(this::slotFor);
+    }
+
+    /**
+     * Resolves all local variables of a function definition
+     *
+     * @param signature node with the function signature, defining arguments and outer variables
+     * @param body      function body
+     * @return layout for the function frame
+     */
+    public static FrameLayout of(Expression.ExpressionNode signature, Expression.ExpressionNode body)
+    {
+        FrameLayout layout = new FrameLayout();
+        layout.collect(signature);
+        layout.collect(body);
+        return layout;
+    }
+
+    private void collect(Expression.ExpressionNode node)
+    {
+        if (node.op instanceof LazyValue.Constant)
+        {
+            return;
+        }
+        if (node.token.type == Token.TokenType.VARIABLE)
+        {
+            if (!node.token.surface.startsWith("global_"))
+            {
+                slotFor(node.token.surface);
+            }
+            return;
+        }
+        if (isDefinition(node))
+        {
+            // nested function body gets its own frame, but its signature is evaluated in ours
+            collect(node.args.get(0));
+            return;
+        }
+        for (Expression.ExpressionNode arg : node.args)
+        {
+            collect(arg);
+        }
+    }
+
+    static boolean isDefinition(Expression.ExpressionNode node)
+    {
+        return node.token.type.isFunctional() && node.args.size() == 2
+                && (node.token.surface.equals("->") || node.token.surface.equals("define"));
+    }
+
+    private int slotFor(String name)
+    {
+        int slot = slots.getInt(name);
+        if (slot < 0)
+        {
+            slot = names.size();
+            names.add(name);
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    public int slotOf(String name)
+    {
+        return slots.getInt(name);
+    }
+
+    /**
+     * Resolves slots of function arguments once, so calls can bind them straight into the frame
+     *
+     * @return slot of each name, -1 for names that are not slotted
+     */
+    public int[] slotsOf(List<String> names)
+    {
+        int[] result = new int[names.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = slotOf(names.get(i));
+        }
+        return result;
+    }
+
+    public int size()
+    {
+        return names.size();
+    }
+
+    public Frame newFrame()
+    {
+        return new Frame(this);
+    }
+
+    /**
+     * Function body compiled against a layout, so that function values know how to lay out their frames.
+     * Shared by all function values defined by the same code, like lambdas made anew each tick,
+     * which count their calls together, so the body is compiled once, by whichever call makes it hot.
+     */
+    public static final class Body implements LazyValue
+    {
+        private final FrameLayout layout;
+        @Nullable
+        private final Supplier<LazyValue> compiler;
+        private final AtomicInteger invocations = new AtomicInteger();
+        // interpreted code, until replaced with compiled code
+        private volatile LazyValue code;
+
+        /**
+         * @param compiler produces the bytecode tier of the body, or null if it can't be compiled
+         */
+        public Body(FrameLayout layout, LazyValue code, @Nullable Supplier<LazyValue> compiler)
+        {
+            this.layout = layout;
+            this.code = code;
+            this.compiler = compiler;
+        }
+
+        public FrameLayout layout()
+        {
+            return layout;
+        }
+
+        @Override
+        public Value evalValue(Context c, Context.Type type)
+        {
+            return code.evalValue(c, type);
+        }
+
+        /**
+         * Counts a call of the body, switching to compiled code once it is hot, or staying interpreted if it could not be compiled
+         */
+        public void invoked()
+        {
+            int threshold = ExpressionCompiler.compileThreshold;
+            // stops counting once hot, and only the call reaching the threshold compiles
+            if (compiler != null && threshold > 0 && invocations.get() < threshold && invocations.incrementAndGet() == threshold)
+            {
+                LazyValue compiledCode = compiler.get();
+                if (compiledCode != null)
+                {
+                    code = compiledCode;
+                }
+            }
+        }
+    }
+
+    /**
+     * Variables of a single function call. Behaves like a regular map of variables,
+     * with slotted names stored in an array and any other names in a lazily created overflow map.
+     * Values bound straight into a slot, like function arguments, are kept as they are,
+     * and only wrapped in a lazy value when the frame is used as a map.
+     */
+    public static class Frame extends AbstractMap<String, LazyValue>
+    {
+        public final FrameLayout layout;
+        public final LazyValue[] slots;
+        public final Value[] values;
+        @Nullable
+        private Map<String, LazyValue> overflow;
+
+        private Frame(FrameLayout layout)
+        {
+            this.layout = layout;
+            this.slots = new LazyValue[layout.size()];
+            this.values = new Value[layout.size()];
+        }
+
+        /**
+         * Binds a value to a slot without wrapping it
+         *
+         * @param value value already bound to the variable of the slot
+         */
+        public void bind(int slot, Value value)
+        {
+            slots[slot] = null;
+            values[slot] = value;
+        }
+
+        /**
+         * Reads a slot, wrapping a value bound straight into it, if any
+         */
+        private LazyValue slot(int slot)
+        {
+            Value value = values[slot];
+            if (value != null)
+            {
+                slots[slot] = (c, t) -> value;
+                values[slot] = null;
+            }
+            return slots[slot];
+        }
+
+        @Override
+        public LazyValue get(Object key)
+        {
+            if (key instanceof String name)
+            {
+                int slot = layout.slotOf(name);
+                if (slot >= 0)
+                {
+                    return slot(slot);
+                }
+            }
+            return overflow == null ? null : overflow.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public LazyValue put(String key, LazyValue value)
+        {
+            int slot = layout.slotOf(key);
+            if (slot >= 0)
+            {
+                LazyValue previous = slot(slot);
+                slots[slot] = value;
+                return previous;
+            }
+            if (value == null)
+            {
+                return overflow == null ? null : overflow.remove(key);
+            }
+            if (overflow == null)
+            {
+                overflow = new HashMap<>();
+            }
+            return overflow.put(key, value);
+        }
+
+        @Override
+        public LazyValue remove(Object key)
+        {
+            if (key instanceof String name)
+            {
+                int slot = layout.slotOf(name);
+                if (slot >= 0)
+                {
+                    LazyValue previous = slot(slot);
+                    slots[slot] = null;
+                    return previous;
+                }
+            }
+            return overflow == null ? null : overflow.remove(key);
+        }
+
+        @Override
+        public void clear()
+        {
+            Arrays.fill(slots, null);
+            Arrays.fill(values, null);
+            overflow = null;
+        }
+
+        @Override
+        public Set<Entry<String, LazyValue>> entrySet()
+        {
+            return new AbstractSet<>()
+            {
+                @Override
+                public Iterator<Entry<String, LazyValue>> iterator()
+                {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size()
+                {
+                    int size = overflow == null ? 0 : overflow.size();
+                    for (int i = 0; i < slots.length; i++)
+                    {
+                        if (slots[i] != null || values[i] != null)
+                        {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private class EntryIterator implements Iterator<Entry<String, LazyValue>>
+        {
+            private int next = advance(0);
+            private int current = -1;
+            @Nullable
+            private Iterator<Entry<String, LazyValue>> overflowIterator;
+
+            private int advance(int from)
+            {
+                while (from < slots.length && slot(from) == null)
+                {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                if (next < slots.length)
+                {
+                    return true;
+                }
+                if (overflowIterator == null && overflow != null)
+                {
+                    overflowIterator = overflow.entrySet().iterator();
+                }
+                return overflowIterator != null && overflowIterator.hasNext();
+            }
+
+            @Override
+            public Entry<String, LazyValue> next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                if (next < slots.length)
+                {
+                    current = next;
+                    next = advance(next + 1);
+                    int slot = current;
+                    return new SimpleEntry<>(layout.names.get(slot), slots[slot])
+                    {
+                        @Override
+                        public LazyValue setValue(LazyValue value)
+                        {
+                            slots[slot] = value;
+                            return super.setValue(value);
+                        }
+                    };
+                }
+                current = -1;
+                return overflowIterator.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                if (current >= 0)
+                {
+                    slots[current] = null;
+                    values[current] = null;
+                    current = -1;
+                }
+                else if (overflowIterator != null)
+                {
+                    overflowIterator.remove();
+                }
+                else
+                {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+    }
+}
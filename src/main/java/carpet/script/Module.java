@@ -7,9 +7,15 @@ import java.nio.file.Path;
 import java.util.Locale;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.io.IOUtils;
 
 import carpet.script.argument.FileArgument;
+import carpet.script.exception.ThrowStatement;
+import carpet.script.exception.Throwables;
+import carpet.script.utils.AppDataJournal;
+import carpet.script.utils.ScriptFileWriter;
 import net.minecraft.nbt.Tag;
 
 public record Module(String name, String code, boolean library)
@@ -90,38 +96,81 @@ public record Module(String name, String code, boolean library)
     public static Tag getData(Module module, ScriptServer scriptServer)
     {
         Path dataFile = resolveResource(module, scriptServer);
-        if (dataFile == null || !Files.exists(dataFile) || !(Files.isRegularFile(dataFile)))
+        if (dataFile == null)
         {
             return null;
         }
+        Path journal = AppDataJournal.journalOf(dataFile);
+        if (scriptServer.fileWriter.pending(journal) != null)
+        {
+            scriptServer.fileWriter.flush();
+        }
         synchronized (FileArgument.writeIOSync)
         {
-            return FileArgument.readTag(dataFile);
+            ScriptFileWriter.Pending pending = scriptServer.fileWriter.pending(dataFile);
+            if (pending != null)
+            {
+                return pending.tag();
+            }
+            Tag data = Files.isRegularFile(dataFile) ? FileArgument.readTag(dataFile) : null;
+            try
+            {
+                return AppDataJournal.replay(dataFile, data);
+            }
+            catch (IOException e)
+            {
+                CarpetScriptServer.LOG.warn("IOException when reading app data journal", e);
+                throw new ThrowStatement("Failed to read app data journal " + journal, Throwables.IO_EXCEPTION);
+            }
         }
     }
 
-    public static void saveData(Module module, Tag globalState, ScriptServer scriptServer)
+    public static void saveData(Module module, Tag globalState, ScriptServer scriptServer, @Nullable AppDataJournal journal)
     {
         Path dataFile = resolveResource(module, scriptServer);
         if (dataFile == null)
         {
             return;
         }
-        if (!Files.exists(dataFile.getParent()))
+        if (journal != null)
         {
-            try
-            {
-                Files.createDirectories(dataFile.getParent());
-            }
-            catch (IOException e)
+            journal.save(dataFile, globalState, scriptServer.fileWriter);
+            return;
+        }
+        Path journalFile = AppDataJournal.journalOf(dataFile);
+        if (scriptServer.fileWriter.pending(journalFile) != null || Files.exists(journalFile))
+        {
+            // app stopped using a journal, so it needs to go away with the full save
+            scriptServer.fileWriter.compact(journalFile, dataFile, globalState.copy());
+            return;
+        }
+        scriptServer.fileWriter.writeTag(dataFile, globalState);
+    }
+
+    /**
+     * @return journal continuing from the loaded app data, for apps with 'journaled_data' in their config
+     */
+    @Nullable
+    public static AppDataJournal openJournal(Module module, @Nullable Tag globalState, ScriptServer scriptServer)
+    {
+        Path dataFile = resolveResource(module, scriptServer);
+        if (dataFile == null)
+        {
+            return null;
+        }
+        Path journal = AppDataJournal.journalOf(dataFile);
+        long size = 0;
+        try
+        {
+            if (Files.exists(journal))
             {
-                throw new IllegalStateException(e);
+                size = Files.size(journal);
             }
         }
-        synchronized (FileArgument.writeIOSync)
+        catch (IOException ignored)
         {
-            FileArgument.writeTagDisk(globalState, dataFile, false);
         }
+        return new AppDataJournal(globalState, size);
     }
 
     private static Path resolveResource(Module module, ScriptServer scriptServer)
@@ -0,0 +1,130 @@
+package carpet.script;
+
+import carpet.script.value.FunctionValue;
+import carpet.script.value.Value;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of parsing a piece of code, kept apart from the expression it was parsed for, so other expressions
+ * with the same code, like libraries imported by several apps, or apps loaded again, don't have to parse it again.
+ * Holds either the tokens in reverse polish notation, for code that is not optimized, or the optimized parse tree.
+ * Each expression gets its own copy, with fresh tokens, since parsing and compiling may change them.
+ */
+final class ParsedCode
+{
+    private record Node(Token token, List<Node> args, @Nullable Value constant)
+    {
+        Expression.ExpressionNode instantiate()
+        {
+            List<Expression.ExpressionNode> nodes = new ArrayList<>(args.size());
+            for (Node arg : args)
+            {
+                nodes.add(arg.instantiate());
+            }
+            Token copy = copy(token);
+            // only constants keep their op, the rest is compiled from tokens
+            Expression.ExpressionNode node = new Expression.ExpressionNode(
+                    constant == null ? null : LazyValue.ofConstant(constant.deepcopy()),
+                    args.isEmpty() ? Collections.emptyList() : nodes,
+                    copy
+            );
+            copy.node = node;
+            return node;
+        }
+    }
+
+    @Nullable
+    private final List<Token> tokens;
+    @Nullable
+    private final Node tree;
+
+    private ParsedCode(@Nullable List<Token> tokens, @Nullable Node tree)
+    {
+        this.tokens = tokens;
+        this.tree = tree;
+    }
+
+    /**
+     * @param rpn tokens before they are built into a tree
+     */
+    static ParsedCode ofTokens(List<Token> rpn)
+    {
+        List<Token> tokens = new ArrayList<>(rpn.size());
+        for (Token token : rpn)
+        {
+            tokens.add(copy(token));
+        }
+        return new ParsedCode(tokens, null);
+    }
+
+    /**
+     * @param root optimized tree, before it is compiled
+     * @return null if the tree holds values tied to its expression, like functions, so it can't be shared
+     */
+    @Nullable
+    static ParsedCode ofTree(Expression.ExpressionNode root)
+    {
+        Node tree = snapshot(root);
+        return tree == null ? null : new ParsedCode(null, tree);
+    }
+
+    @Nullable
+    private static Node snapshot(Expression.ExpressionNode node)
+    {
+        Value value = null;
+        if (node.op instanceof LazyValue.Constant constant)
+        {
+            value = constant.get();
+            if (value instanceof FunctionValue)
+            {
+                return null;
+            }
+            value = value.deepcopy();
+        }
+        // folded constants keep their arguments, for explain()
+        List<Node> args = new ArrayList<>(node.args.size());
+        for (Expression.ExpressionNode arg : node.args)
+        {
+            Node snapshot = snapshot(arg);
+            if (snapshot == null)
+            {
+                return null;
+            }
+            args.add(snapshot);
+        }
+        return new Node(copy(node.token), args, value);
+    }
+
+    List<Token> tokens()
+    {
+        List<Token> copies = new ArrayList<>(tokens.size());
+        for (Token token : tokens)
+        {
+            copies.add(copy(token));
+        }
+        return copies;
+    }
+
+    Expression.ExpressionNode tree()
+    {
+        return tree.instantiate();
+    }
+
+    private static Token copy(Token token)
+    {
+        Token copy = new Token();
+        copy.surface = token.surface;
+        copy.display = token.display;
+        copy.comment = token.comment;
+        copy.type = token.type;
+        copy.pos = token.pos;
+        copy.ordinal = token.ordinal;
+        copy.linepos = token.linepos;
+        copy.lineno = token.lineno;
+        return copy;
+    }
+}
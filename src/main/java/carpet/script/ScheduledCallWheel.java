@@ -0,0 +1,169 @@
+package carpet.script;
+
+import carpet.script.CarpetEventServer.ScheduledCall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel holding calls scheduled with schedule(), keyed by absolute tick.
+ * Adding a call is constant time, and a tick only touches the calls that are due,
+ * plus every 64^n ticks the calls moving down from level n, instead of going through all pending calls.
+ * Calls are also indexed by their app, so unloading an app cancels its calls without scanning the wheel.
+ */
+public class ScheduledCallWheel
+{
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    @SuppressWarnings("unchecked")
+    private final List<ScheduledCall>[][] wheel = new List[LEVELS][SLOTS];
+    // beyond the range of the wheel, 2^36 ticks ahead, in case anyone schedules calls for the next century
+    private List<ScheduledCall> overflow = new ArrayList<>();
+    private final Map<String, Set<ScheduledCall>> byHost = new HashMap<>();
+    private long currentTick;
+    private long sequence;
+    private int size;
+
+    /**
+     * @param delay number of ticks from now, at least one
+     */
+    public void schedule(ScheduledCall call, long delay)
+    {
+        call.dueTime = currentTick + Math.max(delay, 1);
+        call.sequence = sequence++;
+        byHost.computeIfAbsent(call.host, h -> Collections.newSetFromMap(new IdentityHashMap<>())).add(call);
+        size++;
+        place(call);
+    }
+
+    private void place(ScheduledCall call)
+    {
+        long delta = call.dueTime - currentTick;
+        for (int level = 0; level < LEVELS; level++)
+        {
+            if (delta < 1L << (SLOT_BITS * (level + 1)))
+            {
+                int slot = (int) (call.dueTime >>> (SLOT_BITS * level)) & SLOT_MASK;
+                List<ScheduledCall> bucket = wheel[level][slot];
+                if (bucket == null)
+                {
+                    bucket = wheel[level][slot] = new ArrayList<>();
+                }
+                bucket.add(call);
+                return;
+            }
+        }
+        overflow.add(call);
+    }
+
+    /**
+     * Advances the wheel by one tick, running all calls that became due, in the order they were scheduled.
+     * Calls scheduled while running are due on later ticks.
+     */
+    public void tick(Consumer<ScheduledCall> runner)
+    {
+        currentTick++;
+        for (int level = LEVELS - 1; level > 0; level--)
+        {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+            {
+                if (level == LEVELS - 1 && !overflow.isEmpty())
+                {
+                    List<ScheduledCall> far = overflow;
+                    overflow = new ArrayList<>();
+                    cascade(far);
+                }
+                int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+                List<ScheduledCall> bucket = wheel[level][slot];
+                if (bucket != null)
+                {
+                    wheel[level][slot] = null;
+                    cascade(bucket);
+                }
+            }
+        }
+        int slot = (int) currentTick & SLOT_MASK;
+        List<ScheduledCall> due = wheel[0][slot];
+        if (due == null)
+        {
+            return;
+        }
+        wheel[0][slot] = null;
+        if (due.size() > 1)
+        {
+            // calls from higher levels moved in out of order
+            due.sort(Comparator.comparingLong(call -> call.sequence));
+        }
+        for (ScheduledCall call : due)
+        {
+            if (!call.cancelled)
+            {
+                forget(call);
+                runner.accept(call);
+            }
+        }
+    }
+
+    private void cascade(List<ScheduledCall> calls)
+    {
+        for (ScheduledCall call : calls)
+        {
+            if (!call.cancelled)
+            {
+                place(call);
+            }
+        }
+    }
+
+    private void forget(ScheduledCall call)
+    {
+        Set<ScheduledCall> hostCalls = byHost.get(call.host);
+        if (hostCalls != null)
+        {
+            hostCalls.remove(call);
+            if (hostCalls.isEmpty())
+            {
+                byHost.remove(call.host);
+            }
+        }
+        size--;
+    }
+
+    /**
+     * Cancels all pending calls of an app. Cancelled calls stay in the wheel until their slot comes up, but never run
+     */
+    public void removeHost(String host)
+    {
+        Set<ScheduledCall> hostCalls = byHost.remove(host);
+        if (hostCalls != null)
+        {
+            hostCalls.forEach(call -> call.cancelled = true);
+            size -= hostCalls.size();
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return number of pending calls for each app, null key for calls not coming from an app
+     */
+    public Map<String, Integer> pendingByHost()
+    {
+        Map<String, Integer> counts = new HashMap<>();
+        byHost.forEach((host, calls) -> counts.put(host, calls.size()));
+        return counts;
+    }
+}
@@ -8,6 +8,7 @@ import carpet.script.value.FunctionValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.Value;
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
@@ -23,6 +24,7 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
@@ -319,6 +321,7 @@ public class ScriptCommand
 
         LiteralArgumentBuilder<CommandSourceStack> q = literal("event").requires(Vanilla::ServerPlayer_canScriptACE).
                 executes(ScriptCommand::listEvents).
+                then(literal("stats").executes(ScriptCommand::listEventStats)).
                 then(literal("add_to").
                         then(argument("event", StringArgumentType.word()).
                                 suggests((cc, bb) -> suggest(CarpetEventServer.Event.publicEvents(ss(cc)).stream().map(ev -> ev.name).collect(Collectors.toList()), bb)).
@@ -352,6 +355,14 @@ public class ScriptCommand
                                                 StringArgumentType.getString(cc, "call")
                                         ) ? 1 : 0))));
 
+        LiteralArgumentBuilder<CommandSourceStack> k = literal("scheduled").requires(Vanilla::ServerPlayer_canScriptACE).
+                executes(ScriptCommand::listScheduled);
+        LiteralArgumentBuilder<CommandSourceStack> g = literal("budget").requires(Vanilla::ServerPlayer_canScriptACE).
+                executes(ScriptCommand::showTickBudget).
+                then(argument("ms", IntegerArgumentType.integer(0, 1000)).
+                        executes(cc -> setTickBudget(cc, IntegerArgumentType.getInteger(cc, "ms"))));
+        LiteralArgumentBuilder<CommandSourceStack> p = literal("tasks").requires(Vanilla::ServerPlayer_canScriptACE).
+                executes(ScriptCommand::listTaskPools);
         LiteralArgumentBuilder<CommandSourceStack> d = literal("download").requires(Vanilla::ServerPlayer_canScriptACE).
                 then(argument("path", StringArgumentType.greedyString()).
                         suggests(ScriptCommand::suggestDownloadableApps).
@@ -387,13 +398,13 @@ public class ScriptCommand
 
         dispatcher.register(literal("script").
                 requires(Vanilla::ServerPlayer_canScriptGeneral).
-                then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t).then(a).then(f).then(q).then(d).then(r));
+                then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t).then(a).then(f).then(q).then(k).then(p).then(g).then(d).then(r));
         dispatcher.register(literal("script").
                 requires(Vanilla::ServerPlayer_canScriptGeneral).
                 then(literal("in").
                         then(argument("app", StringArgumentType.word()).
                                 suggests((cc, bb) -> suggest(ss(cc).modules.keySet(), bb)).
-                                then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t))));
+                                then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t).then(g))));
     }
 
     private static CarpetScriptHost getHost(CommandContext<CommandSourceStack> context) throws CommandSyntaxException
@@ -441,6 +452,85 @@ public class ScriptCommand
         return 1;
     }
 
+    private static int listEventStats(CommandContext<CommandSourceStack> context)
+    {
+        CommandSourceStack source = context.getSource();
+        Carpet.Messenger_message(source, "w Event dispatches and argument values built since start:");
+        List<CarpetEventServer.Event> events = CarpetEventServer.Event.getAllEvents(ss(context), e -> e.handler.dispatches > 0).stream()
+                .sorted(Comparator.comparingLong((CarpetEventServer.Event e) -> e.handler.argumentValues).thenComparingLong(e -> e.handler.dispatches).reversed())
+                .toList();
+        for (CarpetEventServer.Event event : events)
+        {
+            CarpetEventServer.CallbackList handler = event.handler;
+            Carpet.Messenger_message(source, "w  - " + event.name + ": " + handler.dispatches + " dispatches, " + handler.argumentLists + " argument lists, " + handler.argumentValues + " values");
+        }
+        return events.size();
+    }
+
+    private static int listScheduled(CommandContext<CommandSourceStack> context)
+    {
+        ScheduledCallWheel scheduledCalls = ss(context).events.scheduledCalls;
+        CommandSourceStack source = context.getSource();
+        Carpet.Messenger_message(source, "w Pending scheduled calls: " + scheduledCalls.size());
+        scheduledCalls.pendingByHost().entrySet().stream().sorted(Map.Entry.comparingByValue(Collections.reverseOrder())).forEach(entry ->
+                Carpet.Messenger_message(source, "w  - " + (entry.getKey() == null ? "global" : entry.getKey()) + ": " + entry.getValue())
+        );
+        return scheduledCalls.size();
+    }
+
+    private static int showTickBudget(CommandContext<CommandSourceStack> context) throws CommandSyntaxException
+    {
+        CarpetScriptHost host = getHost(context).appHost();
+        CommandSourceStack source = context.getSource();
+        if (host.tickBudget <= 0)
+        {
+            Carpet.Messenger_message(source, "w Commands in " + host.getVisualName() + " run without a tick budget");
+            return 0;
+        }
+        Carpet.Messenger_message(source, "w Typed commands in " + host.getVisualName() + " run for at most " + host.tickBudget + "ms per tick");
+        Carpet.Messenger_message(source, "w  - commands from command blocks, functions and scripts always run at once");
+        Carpet.Messenger_message(source, "w  - " + host.slicedJobs + " commands took " + host.slicedTicks + " extra ticks, last one " + host.lastSlicedTicks());
+        return (int) host.tickBudget;
+    }
+
+    private static int setTickBudget(CommandContext<CommandSourceStack> context, int ms) throws CommandSyntaxException
+    {
+        CarpetScriptHost host = getHost(context).appHost();
+        host.tickBudget = ms;
+        Carpet.Messenger_message(context.getSource(), "gi Tick budget for " + host.getVisualName() + (ms == 0 ? " disabled" : " set to " + ms + "ms"));
+        return ms;
+    }
+
+    private static int listTaskPools(CommandContext<CommandSourceStack> context)
+    {
+        CarpetScriptServer scriptServer = ss(context);
+        CommandSourceStack source = context.getSource();
+        Carpet.Messenger_message(source, "w Task pools:");
+        int pools = 0;
+        List<CarpetScriptHost> hosts = new ArrayList<>();
+        hosts.add(scriptServer.globalHost);
+        hosts.addAll(scriptServer.modules.values());
+        for (CarpetScriptHost appHost : hosts)
+        {
+            List<CarpetScriptHost> instances = new ArrayList<>();
+            instances.add(appHost);
+            appHost.getUserList().forEach(user -> instances.add((CarpetScriptHost) appHost.retrieveForExecution(user)));
+            for (CarpetScriptHost host : instances)
+            {
+                for (Map.Entry<Value, TaskPool> entry : host.taskPools().entrySet())
+                {
+                    TaskPool pool = entry.getValue();
+                    pools++;
+                    Carpet.Messenger_message(source, "w  - " + host.getVisualName() + (host.user == null ? "" : "/" + host.user)
+                            + (entry.getKey().isNull() ? "" : " " + entry.getKey().getString())
+                            + ": " + pool.type.name().toLowerCase(Locale.ROOT) + (pool.type == TaskPool.Type.BOUNDED ? " (" + pool.threads + " threads)" : "")
+                            + ", " + pool.active() + " active, " + pool.queued() + " queued, " + pool.completed() + " completed");
+                }
+            }
+        }
+        return pools;
+    }
+
     private static int listGlobals(CommandContext<CommandSourceStack> context, boolean all) throws CommandSyntaxException
     {
         CarpetScriptHost host = getHost(context);
@@ -490,7 +580,7 @@ public class ScriptCommand
             Runnable token = Carpet.startProfilerSection("Scarpet run");
             host.setChatErrorSnooper(source);
             long start = System.nanoTime();
-            Value result = call.get();
+            Value result = host.runSliced(source, call);
             long time = ((System.nanoTime() - start) / 1000);
             String metric = "\u00B5s";
             if (time > 5000)
@@ -503,7 +593,8 @@ public class ScriptCommand
                 time /= 1000;
                 metric = "s";
             }
-            Carpet.Messenger_message(source, "wi  = ", "wb " + result.getString(), "gi  (" + time + metric + ")");
+            int ticks = host.appHost().tickBudget > 0 ? host.lastSlicedTicks() : 0;
+            Carpet.Messenger_message(source, "wi  = ", "wb " + result.getString(), "gi  (" + time + metric + (ticks > 0 ? ", " + ticks + " ticks" : "") + ")");
             int intres = (int) result.readInteger();
             token.run();
             return intres;
@@ -670,29 +761,32 @@ public class ScriptCommand
             Carpet.Messenger_message(source, "r too many blocks to evaluate: " + int_1);
             return 1;
         }
-        int successCount = 0;
+        int[] successCount = new int[]{0};
         Carpet.getImpendingFillSkipUpdates().set(!Carpet.getFillUpdates());
         try
         {
-            for (int x = area.minX(); x <= area.maxX(); x++)
-            {
-                for (int y = area.minY(); y <= area.maxY(); y++)
+            host.runSliced(source, () -> {
+                for (int x = area.minX(); x <= area.maxX(); x++)
                 {
-                    for (int z = area.minZ(); z <= area.maxZ(); z++)
+                    for (int y = area.minY(); y <= area.maxY(); y++)
                     {
-                        try
+                        for (int z = area.minZ(); z <= area.maxZ(); z++)
                         {
-                            if (cexpr.fillAndScanCommand(host, x, y, z))
+                            try
+                            {
+                                if (cexpr.fillAndScanCommand(host, x, y, z))
+                                {
+                                    successCount[0]++;
+                                }
+                            }
+                            catch (ArithmeticException ignored)
                             {
-                                successCount++;
                             }
-                        }
-                        catch (ArithmeticException ignored)
-                        {
                         }
                     }
                 }
-            }
+                return Value.NULL;
+            });
         }
         catch (CarpetExpressionException exc)
         {
@@ -703,8 +797,8 @@ public class ScriptCommand
         {
             Carpet.getImpendingFillSkipUpdates().set(false);
         }
-        Carpet.Messenger_message(source, "w Expression successful in " + successCount + " out of " + int_1 + " blocks");
-        return successCount;
+        Carpet.Messenger_message(source, "w Expression successful in " + successCount[0] + " out of " + int_1 + " blocks");
+        return successCount[0];
 
     }
 
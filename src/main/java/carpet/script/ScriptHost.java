@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,7 +23,6 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -32,7 +32,7 @@ public abstract class ScriptHost
     private static final Map<Long, Random> randomizers = new Long2ObjectOpenHashMap<>();
 
     public static Thread mainThread = null;
-    private final Map<Value, ThreadPoolExecutor> executorServices = new HashMap<>();
+    private final Map<Value, TaskPool> executorServices = new ConcurrentHashMap<>();
     private final Map<Value, Object> locks = new ConcurrentHashMap<>();
     private final ScriptServer scriptServer;
     protected boolean inTermination = false;
@@ -259,7 +259,7 @@ public abstract class ScriptHost
     }
 
     @Nullable
-    private FunctionValue getFunction(Module module, String name)
+    FunctionValue getFunction(Module module, String name)
     {
         ModuleData local = getModuleData(module);
         FunctionValue ret = local.globalFunctions.get(name); // most uses would be from local scope anyways
@@ -482,29 +482,58 @@ public abstract class ScriptHost
         return locks.computeIfAbsent(name, n -> new Object());
     }
 
-    public ThreadPoolExecutor getExecutor(Value pool)
+    @Nullable
+    public TaskPool getExecutor(Value pool)
     {
         if (inTermination)
         {
             return null;
         }
-        return executorServices.computeIfAbsent(pool, v -> (ThreadPoolExecutor) Executors.newCachedThreadPool());
+        return executorServices.computeIfAbsent(pool, v -> new TaskPool(TaskPool.Type.CACHED, 0));
+    }
+
+    /**
+     * Sets the type of executor for a task pool. Tasks already running in the pool finish on its previous executor.
+     * Does nothing if the pool already has that type and number of threads
+     */
+    public void configurePool(Value pool, TaskPool.Type type, int threads)
+    {
+        if (inTermination)
+        {
+            return;
+        }
+        TaskPool current = executorServices.get(pool);
+        if (current != null && current.type == type && current.threads == threads)
+        {
+            return;
+        }
+        TaskPool previous = executorServices.put(pool, new TaskPool(type, threads));
+        if (previous != null)
+        {
+            previous.shutdown();
+        }
+    }
+
+    public Map<Value, TaskPool> taskPools()
+    {
+        return Collections.unmodifiableMap(executorServices);
     }
 
     public int taskCount()
     {
-        return executorServices.values().stream().map(ThreadPoolExecutor::getActiveCount).reduce(0, Integer::sum);
+        return executorServices.values().stream().mapToInt(TaskPool::active).sum();
     }
 
     public int taskCount(Value pool)
     {
-        return executorServices.containsKey(pool) ? executorServices.get(pool).getActiveCount() : 0;
+        TaskPool taskPool = executorServices.get(pool);
+        return taskPool == null ? 0 : taskPool.active();
     }
 
     public void onClose()
     {
         inTermination = true;
-        executorServices.values().forEach(ThreadPoolExecutor::shutdown);
+        executorServices.values().forEach(TaskPool::shutdown);
         for (ScriptHost uh : userHosts.values())
         {
             uh.onClose();
@@ -0,0 +1,119 @@
+package carpet.script;
+
+import carpet.script.exception.InternalExpressionException;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor behind a named task() pool of an app, counting tasks waiting and running in it.
+ */
+public class TaskPool implements Executor
+{
+    public enum Type
+    {
+        // new platform thread for each concurrent task, reused when idle. Default, as it always was
+        CACHED,
+        // virtual thread per task, for tasks mostly waiting on files, other tasks or the main thread
+        VIRTUAL,
+        // work stealing pool with a fixed number of threads for cpu heavy tasks, anything beyond that waits in the queue
+        BOUNDED;
+
+        public static Type fromString(String name)
+        {
+            try
+            {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new InternalExpressionException("Unknown task pool type: " + name + ", expected 'cached', 'virtual' or 'bounded'");
+            }
+        }
+    }
+
+    public final Type type;
+    public final int threads;
+    private final ExecutorService executor;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * @param threads number of threads, used only by bounded pools
+     */
+    public TaskPool(Type type, int threads)
+    {
+        this.type = type;
+        this.threads = threads;
+        this.executor = switch (type)
+        {
+            case CACHED -> Executors.newCachedThreadPool();
+            case VIRTUAL -> Executors.newVirtualThreadPerTaskExecutor();
+            case BOUNDED -> Executors.newWorkStealingPool(threads);
+        };
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        queued.incrementAndGet();
+        try
+        {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public int active()
+    {
+        return active.get();
+    }
+
+    public int queued()
+    {
+        return queued.get();
+    }
+
+    public long completed()
+    {
+        return completed.get();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    public void shutdownNow()
+    {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
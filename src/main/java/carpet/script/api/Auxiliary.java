@@ -1,6 +1,7 @@
 package carpet.script.api;
 
 import carpet.script.external.Vanilla;
+import carpet.script.utils.EntityQueryCache;
 import carpet.script.utils.FeatureGenerator;
 import carpet.script.argument.FileArgument;
 import carpet.script.CarpetContext;
@@ -427,6 +428,7 @@ public class Auxiliary
             armorstand.setInvulnerable(true);
             armorstand.getEntityData().set(ArmorStand.DATA_CLIENT_FLAGS, (byte) (interactable ? 8 : 16 | 8));
             level.addFreshEntity(armorstand);
+            EntityQueryCache.invalidate();
             return new EntityValue(armorstand);
         });
 
@@ -439,6 +441,7 @@ public class Auxiliary
                 total++;
                 e.discard();
             }
+            EntityQueryCache.invalidate();
             return new NumericValue(total);
         });
 
@@ -690,6 +693,8 @@ public class Auxiliary
                 s.getServer().getCommands().performPrefixedCommand(
                         new SnoopyCommandSource(s, error, output, returnValue),
                         lv.get(0).getString());
+                // commands like tp or summon can change what entity queries would see
+                EntityQueryCache.invalidate();
                 if (returnValue[0].isEmpty())
                 {
                     return Value.NULL;
@@ -5,25 +5,38 @@ import carpet.script.Context;
 import carpet.script.Expression;
 import carpet.script.Fluff;
 import carpet.script.LazyValue;
+import carpet.script.Token;
 import carpet.script.argument.BlockArgument;
+import carpet.script.argument.FunctionArgument;
 import carpet.script.argument.Vector3Argument;
 import carpet.script.exception.BreakStatement;
 import carpet.script.exception.ContinueStatement;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.RegionSnapshot;
+import carpet.script.utils.SectionBlockReader;
 import carpet.script.value.BlockValue;
+import carpet.script.value.CompletionValue;
+import carpet.script.value.FunctionValue;
 import carpet.script.value.LazyListValue;
 import carpet.script.value.ListValue;
 import carpet.script.value.NumericValue;
+import carpet.script.value.ThreadValue;
 import carpet.script.value.Value;
+import carpet.script.value.ValueConversions;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
 
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Vec3i;
+import net.minecraft.nbt.CompoundTag;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.util.Mth;
+import net.minecraft.world.level.block.state.BlockState;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.max;
@@ -31,10 +44,15 @@ import static java.lang.Math.min;
 
 public class BlockIterators
 {
+    private static final Set<String> COORDINATES = Set.of("_x", "_y", "_z");
+
     public static void apply(Expression expression)
     {
+        expression.addLoopBody("scan", args -> args - 1);
+        expression.addLoopBody("volume", args -> args - 1);
+
         // lazy cause of lazy expression
-        expression.addLazyFunction("scan", (c, t, llv) ->
+        expression.addLazyFunctionWithDelegation("scan", -1, false, false, (c, t, e, tok, llv) ->
         {
             if (llv.size() < 3)
             {
@@ -99,59 +117,12 @@ public class BlockIterators
             int yprange = upperRange.getY();
             int zprange = upperRange.getZ();
 
-            //saving outer scope
-            LazyValue xVal = c.getVariable("_x");
-            LazyValue yVal = c.getVariable("_y");
-            LazyValue zVal = c.getVariable("_z");
-            LazyValue defaultVal = c.getVariable("_");
-            int sCount = 0;
-            outer:
-            for (int y = cy - yrange; y <= cy + yprange; y++)
-            {
-                int yFinal = y;
-                c.setVariable("_y", (ct, tt) -> new NumericValue(yFinal).bindTo("_y"));
-                for (int x = cx - xrange; x <= cx + xprange; x++)
-                {
-                    int xFinal = x;
-                    c.setVariable("_x", (ct, tt) -> new NumericValue(xFinal).bindTo("_x"));
-                    for (int z = cz - zrange; z <= cz + zprange; z++)
-                    {
-                        int zFinal = z;
-
-                        c.setVariable("_z", (ct, tt) -> new NumericValue(zFinal).bindTo("_z"));
-                        Value blockValue = BlockValue.fromCoords(((CarpetContext) c), xFinal, yFinal, zFinal).bindTo("_");
-                        c.setVariable("_", (ct, tt) -> blockValue);
-                        Value result;
-                        try
-                        {
-                            result = expr.evalValue(c, t);
-                        }
-                        catch (ContinueStatement notIgnored)
-                        {
-                            result = notIgnored.retval;
-                        }
-                        catch (BreakStatement notIgnored)
-                        {
-                            break outer;
-                        }
-                        if (t != Context.VOID && result.getBoolean())
-                        {
-                            sCount += 1;
-                        }
-                    }
-                }
-            }
-            //restoring outer scope
-            c.setVariable("_x", xVal);
-            c.setVariable("_y", yVal);
-            c.setVariable("_z", zVal);
-            c.setVariable("_", defaultVal);
-            int finalSCount = sCount;
+            int finalSCount = forEachBlock(cc, t, e, tok, expr, cx - xrange, cy - yrange, cz - zrange, cx + xprange, cy + yprange, cz + zprange);
             return (ct, tt) -> new NumericValue(finalSCount);
         });
 
         // must be lazy
-        expression.addLazyFunction("volume", (c, t, llv) ->
+        expression.addLazyFunctionWithDelegation("volume", -1, false, false, (c, t, e, tok, llv) ->
         {
             CarpetContext cc = (CarpetContext) c;
             if (llv.size() < 3)
@@ -179,54 +150,56 @@ public class BlockIterators
             int maxz = max(z1, z2);
             LazyValue expr = llv.get(pos2Locator.offset);
 
-            //saving outer scope
-            LazyValue xVal = c.getVariable("_x");
-            LazyValue yVal = c.getVariable("_y");
-            LazyValue zVal = c.getVariable("_z");
-            LazyValue defaultVal = c.getVariable("_");
-            int sCount = 0;
-            outer:
-            for (int y = miny; y <= maxy; y++)
+            int finalSCount = forEachBlock(cc, t, e, tok, expr, minx, miny, minz, maxx, maxy, maxz);
+            return (ct, tt) -> new NumericValue(finalSCount);
+        });
+
+        // task_volume(pos1, pos2, 'count'|'positions', function, ...args) => task
+        // calls function(block, ...args) on a copy of the blocks taken right away, off the main thread and on many threads at once,
+        // task value is the number or the list of positions of blocks it returned true for
+        expression.addContextFunction("task_volume", -1, (c, t, lv) ->
+        {
+            CarpetContext cc = (CarpetContext) c;
+            BlockArgument pos1Locator = BlockArgument.findIn(cc, lv, 0);
+            BlockArgument pos2Locator = BlockArgument.findIn(cc, lv, pos1Locator.offset);
+            if (lv.size() < pos2Locator.offset + 2)
             {
-                int yFinal = y;
-                c.setVariable("_y", (ct, tt) -> new NumericValue(yFinal).bindTo("_y"));
-                for (int x = minx; x <= maxx; x++)
-                {
-                    int xFinal = x;
-                    c.setVariable("_x", (ct, tt) -> new NumericValue(xFinal).bindTo("_x"));
-                    for (int z = minz; z <= maxz; z++)
-                    {
-                        int zFinal = z;
-                        c.setVariable("_z", (ct, tt) -> new NumericValue(zFinal).bindTo("_z"));
-                        Value blockValue = BlockValue.fromCoords(((CarpetContext) c), xFinal, yFinal, zFinal).bindTo("_");
-                        c.setVariable("_", (ct, tt) -> blockValue);
-                        Value result;
-                        try
-                        {
-                            result = expr.evalValue(c, t);
-                        }
-                        catch (ContinueStatement notIgnored)
-                        {
-                            result = notIgnored.retval;
-                        }
-                        catch (BreakStatement notIgnored)
-                        {
-                            break outer;
-                        }
-                        if (t != Context.VOID && result.getBoolean())
-                        {
-                            sCount += 1;
-                        }
-                    }
-                }
+                throw new InternalExpressionException("'task_volume' requires two positions, a mode and a function to call");
             }
-            //restoring outer scope
-            c.setVariable("_x", xVal);
-            c.setVariable("_y", yVal);
-            c.setVariable("_z", zVal);
-            c.setVariable("_", defaultVal);
-            int finalSCount = sCount;
-            return (ct, tt) -> new NumericValue(finalSCount);
+            String mode = lv.get(pos2Locator.offset).getString();
+            if (!mode.equals("count") && !mode.equals("positions"))
+            {
+                throw new InternalExpressionException("Unknown 'task_volume' mode: " + mode + ", expected 'count' or 'positions'");
+            }
+            FunctionArgument functionArgument = FunctionArgument.findIn(c, expression.module, lv, pos2Locator.offset + 1, false, false);
+            FunctionValue function = functionArgument.function;
+            if (!Expression.isParallelSafe(c.host, function, WorldAccess.BLOCK_STATE_READERS))
+            {
+                throw new InternalExpressionException("'task_volume' requires a function that computes its result only from its arguments");
+            }
+            List<Value> extraArgs = functionArgument.args;
+            BlockPos from = pos1Locator.block.getPos();
+            BlockPos to = pos2Locator.block.getPos();
+            ServerLevel level = cc.level();
+            RegionSnapshot snapshot = cc.server().isSameThread()
+                    ? RegionSnapshot.capture(level, from, to)
+                    : cc.server().submit(() -> RegionSnapshot.capture(level, from, to)).join();
+            // blocks are detached from the world, so the function sees only the copied state
+            Predicate<BlockState> test = state ->
+            {
+                List<Value> args = new ArrayList<>(extraArgs.size() + 1);
+                args.add(new BlockValue(state, level, new CompoundTag()));
+                args.addAll(extraArgs);
+                return function.callInContext(c, Context.NONE, args).evalValue(c).getBoolean();
+            };
+            return new ThreadValue(Value.NULL, c, () -> mode.equals("count")
+                    ? new NumericValue(snapshot.sections.parallelStream().mapToLong(section -> section.forEachMatching(test, (x, y, z, state) -> {})).sum())
+                    : ListValue.wrap(snapshot.sections.parallelStream().flatMap(section ->
+                    {
+                        List<Value> found = new ArrayList<>();
+                        section.forEachMatching(test, (x, y, z, state) -> found.add(ValueConversions.of(new BlockPos(x, y, z))));
+                        return found.stream();
+                    })));
         });
 
         expression.addContextFunction("neighbours", -1, (c, t, lv) ->
@@ -317,6 +290,7 @@ public class BlockIterators
                 final int maxx = cx + smaxx;
                 final int maxy = cy + smaxy;
                 final int maxz = cz + smaxz;
+                final SectionBlockReader reader = new SectionBlockReader(cc.level());
 
                 int x;
                 int y;
@@ -335,7 +309,7 @@ public class BlockIterators
                 @Override
                 public Value next()
                 {
-                    Value r = BlockValue.fromCoords(cc, x, y, z);
+                    Value r = blockAt(cc, reader, x, y, z);
                     //possibly reroll context
                     x++;
                     if (x > maxx)
@@ -429,6 +403,7 @@ public class BlockIterators
             {
                 return new LazyListValue()
                 {
+                    final SectionBlockReader reader = new SectionBlockReader(cc.level());
                     int curradius;
                     int curpos;
 
@@ -448,11 +423,11 @@ public class BlockIterators
                         if (curradius == 0)
                         {
                             curradius = 1;
-                            return BlockValue.fromCoords(cc, cx, cy, cz);
+                            return blockAt(cc, reader, cx, cy, cz);
                         }
                         // x = 3-|i-6|
                         // z = |( (i-3)%12-6|-3
-                        Value block = BlockValue.fromCoords(cc, cx + (curradius - abs(curpos - 2 * curradius)), cy, cz - curradius + abs(abs(curpos - curradius) % (4 * curradius) - 2 * curradius));
+                        Value block = blockAt(cc, reader, cx + (curradius - abs(curpos - 2 * curradius)), cy, cz - curradius + abs(abs(curpos - curradius) % (4 * curradius) - 2 * curradius));
                         curpos++;
                         if (curpos >= curradius * 4)
                         {
@@ -481,6 +456,7 @@ public class BlockIterators
             {
                 return new LazyListValue()
                 {
+                    final SectionBlockReader reader = new SectionBlockReader(cc.level());
                     int curradius;
                     int curpos;
                     int curheight;
@@ -500,17 +476,17 @@ public class BlockIterators
                     {
                         if (curheight == -height || curheight == height)
                         {
-                            return BlockValue.fromCoords(cc, cx, cy + curheight++, cz);
+                            return blockAt(cc, reader, cx, cy + curheight++, cz);
                         }
                         if (curradius == 0)
                         {
                             curradius++;
-                            return BlockValue.fromCoords(cc, cx, cy + curheight, cz);
+                            return blockAt(cc, reader, cx, cy + curheight, cz);
                         }
                         // x = 3-|i-6|
                         // z = |( (i-3)%12-6|-3
 
-                        Value block = BlockValue.fromCoords(cc, cx + (curradius - abs(curpos - 2 * curradius)), cy + curheight, cz - curradius + abs(abs(curpos - curradius) % (4 * curradius) - 2 * curradius));
+                        Value block = blockAt(cc, reader, cx + (curradius - abs(curpos - 2 * curradius)), cy + curheight, cz - curradius + abs(abs(curpos - curradius) % (4 * curradius) - 2 * curradius));
                         curpos++;
                         if (curpos >= curradius * 4)
                         {
@@ -542,4 +518,133 @@ public class BlockIterators
             }
         });
     }
+
+    /**
+     * Loop variable rebound in place, so iterating doesn't need a new lambda for each value
+     */
+    private static final class Binding implements LazyValue
+    {
+        private Value value;
+
+        @Override
+        public Value evalValue(Context c, Context.Type type)
+        {
+            return value;
+        }
+    }
+
+    private static void bind(Context c, String name, @Nullable Binding binding, Value value)
+    {
+        if (binding == null)
+        {
+            c.setVariable(name, (ct, tt) -> value);
+            return;
+        }
+        binding.value = value;
+        // set again each time, in case the body assigned the variable
+        c.setVariable(name, binding);
+    }
+
+    private static BlockValue blockAt(CarpetContext c, SectionBlockReader reader, int x, int y, int z)
+    {
+        BlockPos pos = BlockValue.locateBlockPos(c, x, y, z);
+        return new BlockValue(reader.getBlockState(pos.getX(), pos.getY(), pos.getZ()), reader.level(), pos);
+    }
+
+    /**
+     * Runs the body of scan() and volume() for each block of the box, in script coordinates, y first, then x, then z
+     *
+     * @return number of blocks the body returned true for
+     */
+    private static int forEachBlock(CarpetContext c, Context.Type t, Expression expression, Token token, LazyValue expr,
+                                    int minx, int miny, int minz, int maxx, int maxy, int maxz)
+    {
+        BlockPos origin = c.origin();
+        SectionBlockReader reader = new SectionBlockReader(c.level());
+        Expression.ExpressionNode body = token.node == null || token.node.args.isEmpty() ? null : token.node.args.get(token.node.args.size() - 1);
+        // when the body depends only on the block and doesn't change anything, its result for plain air holds for all plain air sections
+        Boolean invariant = null;
+        Value airResult = null;
+        // functions defined in the body capture the variables themselves with outer(), so these need new bindings for each block
+        boolean capturing = body == null || Expression.definesFunctions(body);
+        Binding xBinding = capturing ? null : new Binding();
+        Binding yBinding = capturing ? null : new Binding();
+        Binding zBinding = capturing ? null : new Binding();
+        Binding blockBinding = capturing ? null : new Binding();
+
+        //saving outer scope
+        LazyValue xVal = c.getVariable("_x");
+        LazyValue yVal = c.getVariable("_y");
+        LazyValue zVal = c.getVariable("_z");
+        LazyValue defaultVal = c.getVariable("_");
+        int sCount = 0;
+        outer:
+        for (int y = miny; y <= maxy; y++)
+        {
+            bind(c, "_y", yBinding, NumericValue.of(y).bindTo("_y"));
+            int by = origin.getY() + y;
+            for (int x = minx; x <= maxx; x++)
+            {
+                bind(c, "_x", xBinding, NumericValue.of(x).bindTo("_x"));
+                int bx = origin.getX() + x;
+                for (int z = minz; z <= maxz; z++)
+                {
+                    int bz = origin.getZ() + z;
+                    boolean plainAir = reader.inPlainAir(bx, by, bz);
+                    if (plainAir && airResult != null)
+                    {
+                        if (t != Context.VOID && airResult.getBoolean())
+                        {
+                            sCount += 1;
+                        }
+                        continue;
+                    }
+                    bind(c, "_z", zBinding, NumericValue.of(z).bindTo("_z"));
+                    bind(c, "_", blockBinding, new BlockValue(reader.getBlockState(bx, by, bz), c.level(), new BlockPos(bx, by, bz)).bindTo("_"));
+                    Value result;
+                    try
+                    {
+                        result = expr.evalValue(c, t);
+                        if (result instanceof CompletionValue signal)
+                        {
+                            if (signal.breaksLoop())
+                            {
+                                break outer;
+                            }
+                            result = signal.retval;
+                        }
+                    }
+                    catch (ContinueStatement notIgnored)
+                    {
+                        result = notIgnored.retval;
+                    }
+                    catch (BreakStatement notIgnored)
+                    {
+                        break outer;
+                    }
+                    if (plainAir && body != null)
+                    {
+                        if (invariant == null)
+                        {
+                            invariant = Expression.isInvariant(c.host, expression, body, COORDINATES, WorldAccess.BLOCK_STATE_READERS);
+                        }
+                        if (invariant)
+                        {
+                            airResult = result;
+                        }
+                    }
+                    if (t != Context.VOID && result.getBoolean())
+                    {
+                        sCount += 1;
+                    }
+                }
+            }
+        }
+        //restoring outer scope
+        c.setVariable("_x", xVal);
+        c.setVariable("_y", yVal);
+        c.setVariable("_z", zVal);
+        c.setVariable("_", defaultVal);
+        return sCount;
+    }
 }
@@ -5,22 +5,28 @@ import carpet.script.CarpetEventServer;
 import carpet.script.CarpetScriptHost;
 import carpet.script.Context;
 import carpet.script.Expression;
+import carpet.script.Fluff.TriFunction;
 import carpet.script.argument.FunctionArgument;
 import carpet.script.argument.Vector3Argument;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.EntityQueryCache;
 import carpet.script.value.EntityValue;
 import carpet.script.value.ListValue;
+import carpet.script.value.MapValue;
 import carpet.script.value.NBTSerializableValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.Value;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Predicate;
@@ -55,6 +61,30 @@ public class Entities
         return ListValue.wrap(ret);
     }
 
+    private static EntityValue entityArgument(String function, List<Value> lv)
+    {
+        if (lv.size() < 2)
+        {
+            throw new InternalExpressionException("'" + function + "' takes entity as a first argument, and queried feature as a second");
+        }
+        if (!(lv.get(0) instanceof final EntityValue ev))
+        {
+            throw new InternalExpressionException("First argument to " + function + " should be an entity");
+        }
+        return ev;
+    }
+
+    @Nullable
+    private static Value featureArgument(List<Value> lv)
+    {
+        return switch (lv.size())
+                {
+                    case 2 -> null;
+                    case 3 -> lv.get(2);
+                    default -> ListValue.wrap(lv.subList(2, lv.size()));
+                };
+    }
+
     public static void apply(Expression expression)
     {
         expression.addContextFunction("player", -1, (c, t, lv) ->
@@ -159,6 +189,7 @@ public class Entities
                 entity.discard();
                 return Value.NULL;
             }
+            EntityQueryCache.invalidate();
             return new EntityValue(entity);
         });
 
@@ -177,7 +208,7 @@ public class Entities
             String who = lv.get(0).getString();
             CommandSourceStack source = ((CarpetContext) c).source();
             EntityValue.EntityClassDescriptor eDesc = EntityValue.getEntityDescriptor(who, source.getServer());
-            List<? extends Entity> entityList = source.getLevel().getEntities(eDesc.directType, eDesc.filteringPredicate);
+            List<? extends Entity> entityList = EntityQueryCache.list(source.getLevel(), who, eDesc);
             return ListValue.wrap(entityList.stream().map(EntityValue::new));
         });
 
@@ -213,7 +244,7 @@ public class Entities
             Vec3 range = rangeLocator.vec;
             AABB area = centerBox.inflate(range.x, range.y, range.z);
             EntityValue.EntityClassDescriptor eDesc = EntityValue.getEntityDescriptor(who, cc.server());
-            List<? extends Entity> entityList = cc.level().getEntities(eDesc.directType, area, eDesc.filteringPredicate);
+            List<? extends Entity> entityList = EntityQueryCache.area(cc.level(), who, eDesc, area);
             return ListValue.wrap(entityList.stream().map(EntityValue::new));
         });
 
@@ -228,50 +259,128 @@ public class Entities
             return ListValue.wrap(retlist);
         });
 
-        expression.addContextFunction("query", -1, (c, t, lv) ->
+        TriFunction<Context, Context.Type, List<Value>, Value> query = (c, t, lv) ->
         {
-            if (lv.size() < 2)
-            {
-                throw new InternalExpressionException("'query' takes entity as a first argument, and queried feature as a second");
-            }
-            Value v = lv.get(0);
-            if (!(v instanceof final EntityValue ev))
-            {
-                throw new InternalExpressionException("First argument to query should be an entity");
-            }
+            EntityValue ev = entityArgument("query", lv);
             String what = lv.get(1).getString().toLowerCase(Locale.ROOT);
             if (what.equals("tags"))
             {
                 c.host.issueDeprecation("'tags' for entity querying");
             }
-            return switch (lv.size())
-                    {
-                        case 2 -> ev.get(what, null);
-                        case 3 -> ev.get(what, lv.get(2));
-                        default -> ev.get(what, ListValue.wrap(lv.subList(2, lv.size())));
-                    };
+            return ev.get(what, featureArgument(lv));
+        };
+        expression.addContextFunction("query", -1, query, constants ->
+        {
+            // features named by constants are looked up once for the call site
+            Value feature = constants.size() < 2 ? null : constants.get(1);
+            EntityValue.Accessor accessor = feature == null ? null : EntityValue.accessor(feature.getString().toLowerCase(Locale.ROOT));
+            if (accessor == null || accessor.name().equals("tags"))
+            {
+                return null;
+            }
+            // unpacked arguments can still put another feature in its place
+            return (c, t, lv) -> lv.size() >= 2 && lv.get(1) == feature
+                    ? entityArgument("query", lv).get(accessor, featureArgument(lv))
+                    : query.apply(c, t, lv);
         });
 
         // or update
-        expression.addContextFunction("modify", -1, (c, t, lv) ->
+        TriFunction<Context, Context.Type, List<Value>, Value> modify = (c, t, lv) ->
         {
-            if (lv.size() < 2)
+            EntityValue ev = entityArgument("modify", lv);
+            ev.set(lv.get(1).getString(), featureArgument(lv));
+            return ev;
+        };
+        expression.addContextFunction("modify", -1, modify, constants ->
+        {
+            Value feature = constants.size() < 2 ? null : constants.get(1);
+            EntityValue.Modifier modifier = feature == null ? null : EntityValue.modifier(feature.getString());
+            if (modifier == null)
             {
-                throw new InternalExpressionException("'modify' takes entity as a first argument, and queried feature as a second");
+                return null;
             }
-            Value v = lv.get(0);
-            if (!(v instanceof final EntityValue ev))
+            return (c, t, lv) ->
             {
-                throw new InternalExpressionException("First argument to modify should be an entity");
+                if (lv.size() < 2 || lv.get(1) != feature)
+                {
+                    return modify.apply(c, t, lv);
+                }
+                EntityValue ev = entityArgument("modify", lv);
+                ev.set(modifier, featureArgument(lv));
+                return ev;
+            };
+        });
+
+        // query_all(entities, features, layout?), with features looked up once for all entities
+        expression.addContextFunction("query_all", -1, (c, t, lv) ->
+        {
+            if (lv.size() < 2 || lv.size() > 3 || !(lv.get(0) instanceof final ListValue entityList) || !(lv.get(1) instanceof final ListValue featureList))
+            {
+                throw new InternalExpressionException("'query_all' takes a list of entities, a list of features, and optionally 'entities' or 'features' for how to lay out the results");
             }
-            String what = lv.get(1).getString();
-            switch (lv.size())
+            boolean byFeature = lv.size() == 3 && switch (lv.get(2).getString())
+            {
+                case "entities" -> false;
+                case "features" -> true;
+                default -> throw new InternalExpressionException("'query_all' can lay out results by 'entities' or by 'features', not " + lv.get(2).getString());
+            };
+            List<Value> features = featureList.getItems();
+            List<EntityValue.Accessor> accessors = new ArrayList<>(features.size());
+            List<Value> arguments = new ArrayList<>(features.size());
+            for (Value feature : features)
+            {
+                // features with arguments come as lists, as they would follow the entity in query()
+                List<Value> spec = feature instanceof final ListValue list ? list.getItems() : List.of(feature);
+                if (spec.isEmpty())
+                {
+                    throw new InternalExpressionException("'query_all' got an empty feature");
+                }
+                String what = spec.get(0).getString().toLowerCase(Locale.ROOT);
+                if (what.equals("tags"))
+                {
+                    c.host.issueDeprecation("'tags' for entity querying");
+                }
+                EntityValue.Accessor accessor = EntityValue.accessor(what);
+                if (accessor == null)
+                {
+                    throw new InternalExpressionException("Unknown entity feature: " + what);
+                }
+                accessors.add(accessor);
+                arguments.add(switch (spec.size())
+                {
+                    case 1 -> null;
+                    case 2 -> spec.get(1);
+                    default -> ListValue.wrap(spec.subList(1, spec.size()));
+                });
+            }
+            List<Value> entities = entityList.getItems();
+            List<List<Value>> results = new ArrayList<>(byFeature ? features.size() : entities.size());
+            for (int i = 0, size = byFeature ? features.size() : entities.size(); i < size; i++)
+            {
+                results.add(new ArrayList<>(byFeature ? entities.size() : features.size()));
+            }
+            for (int e = 0; e < entities.size(); e++)
+            {
+                if (!(entities.get(e) instanceof final EntityValue ev))
+                {
+                    throw new InternalExpressionException("'query_all' expects a list of entities, got " + entities.get(e).getString());
+                }
+                for (int f = 0; f < accessors.size(); f++)
+                {
+                    Value result = ev.get(accessors.get(f), arguments.get(f));
+                    results.get(byFeature ? f : e).add(result);
+                }
+            }
+            if (!byFeature)
+            {
+                return ListValue.wrap(results.stream().map(ListValue::wrap));
+            }
+            Map<Value, Value> columns = new HashMap<>();
+            for (int f = 0; f < features.size(); f++)
             {
-                case 2 -> ev.set(what, null);
-                case 3 -> ev.set(what, lv.get(2));
-                default -> ev.set(what, ListValue.wrap(lv.subList(2, lv.size())));
+                columns.put(features.get(f), ListValue.wrap(results.get(f)));
             }
-            return v;
+            return MapValue.wrap(columns);
         });
 
         expression.addContextFunction("entity_types", -1, (c, t, lv) ->
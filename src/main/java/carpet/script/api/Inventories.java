@@ -6,6 +6,7 @@ import carpet.script.argument.FunctionArgument;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
+import carpet.script.utils.EntityQueryCache;
 import carpet.script.utils.InputValidator;
 import carpet.script.utils.RecipeHelper;
 import carpet.script.value.BooleanValue;
@@ -571,6 +572,7 @@ public class Inventories
                 item.setDefaultPickUpDelay();
                 cc.level().addFreshEntity(item);
             }
+            EntityQueryCache.invalidate();
             return new NumericValue(item.getItem().getCount());
         });
 
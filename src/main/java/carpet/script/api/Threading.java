@@ -44,7 +44,7 @@ public class Threading
                 {
                     try
                     {
-                        result[0] = lv.get(0).evalValue(c, t);
+                        result[0] = lv.get(0).evalValue(c, t.inScope());
                     }
                     catch (ExpressionException exc)
                     {
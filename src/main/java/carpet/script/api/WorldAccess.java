@@ -3,6 +3,7 @@ package carpet.script.api;
 import carpet.script.CarpetContext;
 import carpet.script.CarpetScriptServer;
 import carpet.script.Context;
+import carpet.script.ExecutionBudget;
 import carpet.script.Expression;
 import carpet.script.Fluff;
 import carpet.script.external.Carpet;
@@ -15,6 +16,8 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
 import carpet.script.utils.BiomeInfo;
+import carpet.script.utils.BulkBlockWriter;
+import carpet.script.utils.EntityQueryCache;
 import carpet.script.utils.InputValidator;
 import carpet.script.utils.WorldTools;
 import carpet.script.value.BlockValue;
@@ -76,6 +79,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
@@ -140,6 +144,11 @@ import static carpet.script.utils.WorldTools.canHasChunk;
 
 public class WorldAccess
 {
+    // regions that large report progress of set_region
+    private static final long REGION_PROGRESS_VOLUME = 1 << 20;
+    // only look at the state of the block they are given
+    public static final Set<String> BLOCK_STATE_READERS = Set.of("air", "liquid", "flammable", "transparent", "blocks_movement",
+            "block_sound", "ticks_randomly", "emitted_light", "blast_resistance", "block_state");
     private static final Map<String, Direction> DIRECTION_MAP = Arrays.stream(Direction.values()).collect(Collectors.toMap(Direction::getName, Function.identity()));
 
     static
@@ -157,6 +166,87 @@ public class WorldAccess
     // dummy entity for dummy requirements in the loot tables (see snowball)
     private static FallingBlockEntity DUMMY_ENTITY = null;
 
+    /**
+     * Property named by a constant at a call site of block_state() or property(), remembered for the block it was last looked up for,
+     * as call sites tend to look at the same kind of block over and over
+     */
+    private static final class PropertyLookup
+    {
+        private record Resolved(Block block, @Nullable Property<?> property)
+        {
+        }
+
+        private final Value name;
+        // replaced as a whole, so tasks sharing the call site always see a matching pair
+        @Nullable
+        private Resolved last;
+
+        private PropertyLookup(Value name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return function for a call site with a constant last argument, or null if the property there is not a constant
+         */
+        @Nullable
+        static Fluff.TriFunction<Context, Context.Type, List<Value>, Value> of(List<Value> constants, Function<PropertyLookup, Fluff.TriFunction<Context, Context.Type, List<Value>, Value>> function)
+        {
+            Value name = constants.size() < 2 ? null : constants.get(constants.size() - 1);
+            return name == null ? null : function.apply(new PropertyLookup(name));
+        }
+
+        @Nullable
+        Property<?> find(BlockState state, Value tag)
+        {
+            // unpacked arguments can put something else where the constant was
+            if (tag != name)
+            {
+                return state.getBlock().getStateDefinition().getProperty(tag.getString());
+            }
+            Resolved resolved = last;
+            if (resolved == null || resolved.block() != state.getBlock())
+            {
+                resolved = new Resolved(state.getBlock(), state.getBlock().getStateDefinition().getProperty(name.getString()));
+                last = resolved;
+            }
+            return resolved.property();
+        }
+    }
+
+    private static Value property(Context c, List<Value> lv, @Nullable PropertyLookup lookup)
+    {
+        c.host.issueDeprecation("property(...)");
+        BlockArgument locator = BlockArgument.findIn((CarpetContext) c, lv, 0);
+        BlockState state = locator.block.getBlockState();
+        if (lv.size() <= locator.offset)
+        {
+            throw new InternalExpressionException("'property' requires to specify a property to query");
+        }
+        Value tag = lv.get(locator.offset);
+        Property<?> property = lookup == null ? state.getBlock().getStateDefinition().getProperty(tag.getString()) : lookup.find(state, tag);
+        return property == null ? Value.NULL : new StringValue(state.getValue(property).toString().toLowerCase(Locale.ROOT));
+    }
+
+    private static Value blockState(Context c, List<Value> lv, @Nullable PropertyLookup lookup)
+    {
+        BlockArgument locator = BlockArgument.findIn((CarpetContext) c, lv, 0, true);
+        BlockState state = locator.block.getBlockState();
+        StateDefinition<Block, BlockState> states = state.getBlock().getStateDefinition();
+        if (locator.offset == lv.size())
+        {
+            Map<Value, Value> properties = new HashMap<>();
+            for (Property<?> p : states.getProperties())
+            {
+                properties.put(StringValue.of(p.getName()), ValueConversions.fromProperty(state, p));
+            }
+            return MapValue.wrap(properties);
+        }
+        Value tag = lv.get(locator.offset);
+        Property<?> property = lookup == null ? states.getProperty(tag.getString()) : lookup.find(state, tag);
+        return property == null ? Value.NULL : ValueConversions.fromProperty(state, property);
+    }
+
     private static Value booleanStateTest(
             Context c,
             String name,
@@ -739,7 +829,7 @@ public class WorldAccess
                 try
                 {
                     skipUpdates.set(true);
-                    result[0] = lv.get(0).evalValue(c, t);
+                    result[0] = lv.get(0).evalValue(c, t.inScope());
                 }
                 finally
                 {
@@ -843,6 +933,72 @@ public class WorldAccess
             return !result[0] ? Value.FALSE : new BlockValue(finalSourceBlockState, world, targetLocator.block.getPos());
         });
 
+        // set_region(pos1, pos2, block, updates?) => number of blocks changed
+        // writes straight into chunk sections, without updates unless asked for, like fill with the fillUpdates rule off
+        expression.addContextFunction("set_region", -1, (c, t, lv) ->
+        {
+            CarpetContext cc = (CarpetContext) c;
+            ServerLevel world = cc.level();
+            BlockArgument pos1Locator = BlockArgument.findIn(cc, lv, 0);
+            BlockArgument pos2Locator = BlockArgument.findIn(cc, lv, pos1Locator.offset);
+            BlockArgument sourceLocator = BlockArgument.findIn(cc, lv, pos2Locator.offset, true);
+            BlockState state = sourceLocator.block.getBlockState();
+            // the same block state everywhere, without per block data
+            if (sourceLocator.block.getData() != null)
+            {
+                throw new InternalExpressionException("'set_region' can't place blocks with block entity data, use 'set' for these");
+            }
+            boolean updates = lv.size() > sourceLocator.offset && lv.get(sourceLocator.offset).getBoolean();
+            BlockPos pos1 = pos1Locator.block.getPos();
+            BlockPos pos2 = pos2Locator.block.getPos();
+            int minx = Math.min(pos1.getX(), pos2.getX());
+            int miny = Math.max(Math.min(pos1.getY(), pos2.getY()), world.getMinY());
+            int minz = Math.min(pos1.getZ(), pos2.getZ());
+            int maxx = Math.max(pos1.getX(), pos2.getX());
+            int maxy = Math.min(Math.max(pos1.getY(), pos2.getY()), world.getMaxY());
+            int maxz = Math.max(pos1.getZ(), pos2.getZ());
+            long volume = (long) (maxx - minx + 1) * Math.max(0, maxy - miny + 1) * (maxz - minz + 1);
+            int[] result = new int[]{0};
+            cc.server().executeBlocking(() ->
+            {
+                BulkBlockWriter writer = new BulkBlockWriter(world, updates);
+                BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+                long done = 0;
+                long reported = 0;
+                // column by column, so with a tick budget the rest of the region is written over the following ticks
+                for (int cx = minx >> 4; cx <= maxx >> 4; cx++)
+                {
+                    for (int cz = minz >> 4; cz <= maxz >> 4; cz++)
+                    {
+                        int fromx = Math.max(minx, cx << 4);
+                        int tox = Math.min(maxx, (cx << 4) + 15);
+                        int fromz = Math.max(minz, cz << 4);
+                        int toz = Math.min(maxz, (cz << 4) + 15);
+                        for (int y = miny; y <= maxy; y++)
+                        {
+                            for (int z = fromz; z <= toz; z++)
+                            {
+                                for (int x = fromx; x <= tox; x++)
+                                {
+                                    writer.set(pos.set(x, y, z), state);
+                                }
+                            }
+                        }
+                        writer.flush();
+                        done += (long) (tox - fromx + 1) * (toz - fromz + 1) * Math.max(0, maxy - miny + 1);
+                        if (volume >= REGION_PROGRESS_VOLUME && done - reported >= volume / 10 && done < volume)
+                        {
+                            reported = done;
+                            Carpet.Messenger_message(cc.source(), "gi set_region: " + (100 * done / volume) + "% done, " + writer.written() + " blocks changed");
+                        }
+                        ExecutionBudget.checkNow();
+                    }
+                }
+                result[0] = writer.written();
+            });
+            return new NumericValue(result[0]);
+        });
+
         expression.addContextFunction("destroy", -1, (c, t, lv) ->
         {
             CarpetContext cc = (CarpetContext) c;
@@ -951,6 +1107,7 @@ public class WorldAccess
                     }
                     Block.dropResources(state, world, where, be, DUMMY_ENTITY, tool);
                 }
+                EntityQueryCache.invalidate();
             }
             if (!playerBreak) // no tool info - block brokwn
             {
@@ -994,6 +1151,8 @@ public class WorldAccess
             if (success)
             {
                 world.levelEvent(null, 2001, where, Block.getId(state));
+                // drops, and xp
+                EntityQueryCache.invalidate();
             }
             return BooleanValue.of(success);
         });
@@ -1089,6 +1248,8 @@ public class WorldAccess
                 }
             };
             explosion.explode();
+            // blown up and pushed entities, and drops
+            EntityQueryCache.invalidate();
             ParticleOptions explosionParticle = explosion.isSmall() ? ParticleTypes.EXPLOSION : ParticleTypes.EXPLOSION_EMITTER;
             cc.level().players().forEach(spe -> {
                 if (spe.distanceToSqr(pos) < 4096.0D)
@@ -1126,6 +1287,8 @@ public class WorldAccess
             if (!(stackArg.getItem() instanceof final BlockItem blockItem))
             {
                 InteractionResult useResult = ctx.getItemInHand().useOn(ctx);
+                // items like spawn eggs, boats or armor stands place entities
+                EntityQueryCache.invalidate();
                 if (useResult == InteractionResult.CONSUME || useResult == InteractionResult.SUCCESS)
                 {
                     return Value.TRUE;
@@ -1171,20 +1334,7 @@ public class WorldAccess
                         Colors.mapColourName.get(s.getMapColor(((CarpetContext) c).level(), p))));
 
         // Deprecated for block_state()
-        expression.addContextFunction("property", -1, (c, t, lv) ->
-        {
-            c.host.issueDeprecation("property(...)");
-            BlockArgument locator = BlockArgument.findIn((CarpetContext) c, lv, 0);
-            BlockState state = locator.block.getBlockState();
-            if (lv.size() <= locator.offset)
-            {
-                throw new InternalExpressionException("'property' requires to specify a property to query");
-            }
-            String tag = lv.get(locator.offset).getString();
-            StateDefinition<Block, BlockState> states = state.getBlock().getStateDefinition();
-            Property<?> property = states.getProperty(tag);
-            return property == null ? Value.NULL : new StringValue(state.getValue(property).toString().toLowerCase(Locale.ROOT));
-        });
+        expression.addContextFunction("property", -1, (c, t, lv) -> property(c, lv, null), constants -> PropertyLookup.of(constants, lookup -> (c, t, lv) -> property(c, lv, lookup)));
 
         // Deprecated for block_state()
         expression.addContextFunction("block_properties", -1, (c, t, lv) ->
@@ -1200,24 +1350,7 @@ public class WorldAccess
 
         // block_state(block)
         // block_state(block, property)
-        expression.addContextFunction("block_state", -1, (c, t, lv) ->
-        {
-            BlockArgument locator = BlockArgument.findIn((CarpetContext) c, lv, 0, true);
-            BlockState state = locator.block.getBlockState();
-            StateDefinition<Block, BlockState> states = state.getBlock().getStateDefinition();
-            if (locator.offset == lv.size())
-            {
-                Map<Value, Value> properties = new HashMap<>();
-                for (Property<?> p : states.getProperties())
-                {
-                    properties.put(StringValue.of(p.getName()), ValueConversions.fromProperty(state, p));
-                }
-                return MapValue.wrap(properties);
-            }
-            String tag = lv.get(locator.offset).getString();
-            Property<?> property = states.getProperty(tag);
-            return property == null ? Value.NULL : ValueConversions.fromProperty(state, property);
-        });
+        expression.addContextFunction("block_state", -1, (c, t, lv) -> blockState(c, lv, null), constants -> PropertyLookup.of(constants, lookup -> (c, t, lv) -> blockState(c, lv, lookup)));
 
         expression.addContextFunction("block_list", -1, (c, t, lv) ->
         {
@@ -7,6 +7,7 @@ import carpet.script.ScriptHost;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
+import carpet.script.utils.ScriptFileWriter;
 import carpet.script.value.MapValue;
 import carpet.script.value.StringValue;
 import carpet.script.value.Value;
@@ -31,6 +32,8 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
@@ -271,9 +274,38 @@ public class FileArgument
         throw new InternalExpressionException("Invalid file descriptor: " + res);
     }
 
+    /**
+     * Writes to plain files go through the write-behind queue of the server, files in zip containers are written in place
+     */
+    private ScriptFileWriter writer()
+    {
+        return host.scriptServer().fileWriter;
+    }
+
+    /**
+     * @return content of a text file with pending writes applied
+     */
+    private static String pendingContent(Path dataFile, ScriptFileWriter.Pending pending)
+    {
+        if (pending.truncated() || !Files.exists(dataFile))
+        {
+            return pending.appended();
+        }
+        try
+        {
+            return Files.readString(dataFile, StandardCharsets.UTF_8) + pending.appended();
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("IOException when reading text file", e);
+            throw new ThrowStatement("Failed to read text file " + dataFile, Throwables.IO_EXCEPTION);
+        }
+    }
+
 
     public boolean findPathAndApply(Module module, Consumer<Path> action)
     {
+        writer().flush();
         try
         {
             synchronized (writeIOSync)
@@ -320,6 +352,7 @@ public class FileArgument
     public Stream<String> listFolder(Module module)
     {
         Stream<String> strings;
+        writer().flush();
         try (Stream<Path> result = listFiles(module))
         {
             synchronized (writeIOSync)
@@ -371,6 +404,25 @@ public class FileArgument
 
     public boolean appendToTextFile(Module module, List<String> message)
     {
+        if (zipContainer == null)
+        {
+            Path dataFile = toPath(module);
+            if (dataFile == null)
+            {
+                return false;
+            }
+            StringBuilder text = new StringBuilder();
+            for (String line : message)
+            {
+                text.append(line);
+                if (type == Type.TEXT)
+                {
+                    text.append(System.lineSeparator());
+                }
+            }
+            writer().append(dataFile, text.toString());
+            return true;
+        }
         try
         {
             synchronized (writeIOSync)
@@ -415,7 +467,16 @@ public class FileArgument
             synchronized (writeIOSync)
             {
                 Path dataFile = toPath(module);
-                if (dataFile == null || !Files.exists(dataFile))
+                if (dataFile == null)
+                {
+                    return null;
+                }
+                ScriptFileWriter.Pending pending = zipContainer == null ? writer().pending(dataFile) : null;
+                if (pending != null)
+                {
+                    return pending.tag();
+                }
+                if (!Files.exists(dataFile))
                 {
                     return null;
                 }
@@ -490,8 +551,13 @@ public class FileArgument
                 {
                     return false;
                 }
+                if (zipContainer == null)
+                {
+                    writer().writeTag(dataFile, tag);
+                    return true;
+                }
                 createPaths(dataFile);
-                return writeTagDisk(tag, dataFile, zipContainer != null);
+                return writeTagDisk(tag, dataFile, true);
             }
         }
         finally
@@ -553,6 +619,16 @@ public class FileArgument
                 {
                     return false;
                 }
+                if (zipContainer == null)
+                {
+                    ScriptFileWriter.Pending pending = writer().pending(dataFile);
+                    if (pending == null ? !Files.exists(dataFile) : pending.deleted())
+                    {
+                        return false;
+                    }
+                    writer().delete(dataFile);
+                    return true;
+                }
                 return Files.deleteIfExists(dataFile);
             }
         }
@@ -579,6 +655,11 @@ public class FileArgument
                 {
                     return null;
                 }
+                ScriptFileWriter.Pending pending = zipContainer == null ? writer().pending(dataFile) : null;
+                if (pending != null)
+                {
+                    return pending.deleted() ? null : readLines(new StringReader(pendingContent(dataFile, pending)), dataFile);
+                }
                 if (!Files.exists(dataFile))
                 {
                     return null;
@@ -594,7 +675,20 @@ public class FileArgument
 
     public static List<String> listFileContent(Path filePath)
     {
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8))
+        try
+        {
+            return readLines(Files.newBufferedReader(filePath, StandardCharsets.UTF_8), filePath);
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("IOException when reading text file", e);
+            throw new ThrowStatement("Failed to read text file " + filePath, Throwables.IO_EXCEPTION);
+        }
+    }
+
+    private static List<String> readLines(Reader source, Path filePath)
+    {
+        try (BufferedReader reader = new BufferedReader(source))
         {
             List<String> result = new ArrayList<>();
             for (; ; )
@@ -623,7 +717,16 @@ public class FileArgument
             synchronized (writeIOSync)
             {
                 Path dataFile = toPath(module);
-                if (dataFile == null || !Files.exists(dataFile))
+                if (dataFile == null)
+                {
+                    return null;
+                }
+                ScriptFileWriter.Pending pending = zipContainer == null ? writer().pending(dataFile) : null;
+                if (pending != null)
+                {
+                    return pending.deleted() ? null : readJsonContent(new StringReader(pendingContent(dataFile, pending)), dataFile);
+                }
+                if (!Files.exists(dataFile))
                 {
                     return null;
                 }
@@ -638,7 +741,20 @@ public class FileArgument
 
     public static JsonElement readJsonContent(Path filePath)
     {
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8))
+        try
+        {
+            return readJsonContent(Files.newBufferedReader(filePath, StandardCharsets.UTF_8), filePath);
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("IOException when reading JSON file", e);
+            throw new ThrowStatement("Failed to read json file content " + filePath, Throwables.IO_EXCEPTION);
+        }
+    }
+
+    private static JsonElement readJsonContent(Reader source, Path filePath)
+    {
+        try (BufferedReader reader = new BufferedReader(source))
         {
             return JsonParser.parseReader(reader);
         }
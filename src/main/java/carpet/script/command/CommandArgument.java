@@ -447,7 +447,7 @@ public abstract class CommandArgument
             List<Value> args = new ArrayList<>(customSuggester.args.size() + 1);
             args.add(MapValue.wrap(params));
             args.addAll(customSuggester.args);
-            Value response = host.handleCommand(context.getSource(), customSuggester.function, args);
+            Value response = host.handleSuggestions(context.getSource(), customSuggester.function, args);
             if (!(response instanceof ListValue))
             {
                 throw error("Custom suggester should return a list of options" + " for custom type " + suffix);
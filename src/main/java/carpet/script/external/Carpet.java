@@ -19,6 +19,7 @@ import carpet.script.exception.LoadException;
 import carpet.script.value.MapValue;
 import carpet.script.value.StringValue;
 import carpet.utils.CarpetProfiler;
+import carpet.utils.CommandHelper;
 import carpet.utils.Messenger;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.api.FabricLoader;
@@ -141,6 +142,11 @@ public class Carpet
         return CarpetSettings.fillUpdates;
     }
 
+    public static boolean isTypedCommand(CommandSourceStack source)
+    {
+        return CommandHelper.isTypedCommand(source);
+    }
+
     @Nullable
     public static Module fetchGlobalModule(String name, boolean allowLibraries) throws IOException
     {
@@ -26,7 +26,7 @@ public class Arithmetic
                 {
                     factorial = factorial * i;
                 }
-                return new NumericValue(factorial);
+                return NumericValue.of(factorial);
             }
             else if (number > 170)
             {
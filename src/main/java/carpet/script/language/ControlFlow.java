@@ -8,6 +8,7 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ProcessedThrowStatement;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
+import carpet.script.value.CompletionValue;
 import carpet.script.value.ListValue;
 import carpet.script.value.MapValue;
 import carpet.script.value.NumericValue;
@@ -22,16 +23,25 @@ public class ControlFlow
     public static void apply(Expression expression) // public just to get the javadoc right
     {
         // needs to be lazy cause of custom contextualization
+        // passes on local completions of return, break and continue from any statement
         expression.addLazyBinaryOperator(";", "then", Operators.precedence.get("nextop;"), true, true, t -> Context.Type.VOID, (c, t, lv1, lv2) ->
         {
-            lv1.evalValue(c, Context.VOID);
+            Value v1 = lv1.evalValue(c, Context.VOID);
+            if (v1 instanceof CompletionValue)
+            {
+                return (cc, tt) -> v1;
+            }
             Value v2 = lv2.evalValue(c, t);
             return (cc, tt) -> v2;
         }, (c, t, lv) -> {
             int imax = lv.size() - 1;
             for (int i = 0; i < imax; i++)
             {
-                lv.get(i).evalValue(c, Context.VOID);
+                Value v = lv.get(i).evalValue(c, Context.VOID);
+                if (v instanceof CompletionValue)
+                {
+                    return (cc, tt) -> v;
+                }
             }
             Value v = lv.get(imax).evalValue(c, t);
             return (cc, tt) -> v;
@@ -86,7 +96,7 @@ public class ControlFlow
             }
             try
             {
-                Value retval = lv.get(0).evalValue(c, t);
+                Value retval = lv.get(0).evalValue(c, t.inScope());
                 return (ct, tt) -> retval;
             }
             catch (ProcessedThrowStatement ret)
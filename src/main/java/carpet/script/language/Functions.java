@@ -8,6 +8,7 @@ import carpet.script.Token;
 import carpet.script.argument.FunctionArgument;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ReturnStatement;
+import carpet.script.value.CompletionValue;
 import carpet.script.value.FunctionSignatureValue;
 import carpet.script.value.FunctionValue;
 import carpet.script.value.FunctionAnnotationValue;
@@ -145,5 +146,6 @@ public class Functions
         expression.addImpureFunction("return", lv -> {
             throw new ReturnStatement(lv.size() == 0 ? Value.NULL : lv.get(0));
         });
+        expression.addControlSignal("return", Expression.ControlScope.FUNCTION, lv -> CompletionValue.returning(lv.size() == 0 ? Value.NULL : lv.get(0)));
     }
 }
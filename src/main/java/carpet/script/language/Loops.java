@@ -3,10 +3,13 @@ package carpet.script.language;
 import carpet.script.Context;
 import carpet.script.Expression;
 import carpet.script.LazyValue;
+import carpet.script.Token;
 import carpet.script.exception.BreakStatement;
 import carpet.script.exception.ContinueStatement;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.value.AbstractListValue;
+import carpet.script.value.CompletionValue;
+import carpet.script.value.LazyListValue;
 import carpet.script.value.ListValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.Value;
@@ -14,6 +17,8 @@ import carpet.script.value.Value;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 public class Loops
 {
@@ -48,6 +53,31 @@ public class Loops
             throw new InternalExpressionException("'continue' can only be called with zero or one argument");
         });
 
+        // non-throwing variants for break and continue directly in the body of loops handling them
+        expression.addControlSignal("break", Expression.ControlScope.LOOP, lv ->
+        {
+            if (lv.size() > 1)
+            {
+                throw new InternalExpressionException("'break' can only be called with zero or one argument");
+            }
+            return CompletionValue.breaking(lv.isEmpty() ? null : lv.get(0));
+        });
+        expression.addControlSignal("continue", Expression.ControlScope.LOOP, lv ->
+        {
+            if (lv.size() > 1)
+            {
+                throw new InternalExpressionException("'continue' can only be called with zero or one argument");
+            }
+            return CompletionValue.continuing(lv.isEmpty() ? null : lv.get(0));
+        });
+        expression.addLoopBody("while", args -> args == 2 ? 1 : 2);
+        expression.addLoopBody("loop", args -> 1);
+        expression.addLoopBody("map", args -> 1);
+        expression.addLoopBody("filter", args -> 1);
+        expression.addLoopBody("c_for", args -> 3);
+        expression.addLoopBody("for", args -> 1);
+        expression.addLoopBody("reduce", args -> 1);
+
         // lazy
         expression.addLazyFunction("while", -1, (c, t, lv) ->
         {
@@ -58,12 +88,27 @@ public class Loops
                 Value lastOne = Value.NULL;
                 //scoping
                 LazyValue defaultVal = c.getVariable("_");
-                c.setVariable("_", (cc, tt) -> new NumericValue(0).bindTo("_"));
+                c.setVariable("_", (cc, tt) -> NumericValue.of(0).bindTo("_"));
                 while (condition.evalValue(c, Context.BOOLEAN).getBoolean())
                 {
                     try
                     {
-                        lastOne = expr.evalValue(c, t);
+                        Value result = expr.evalValue(c, t);
+                        if (result instanceof CompletionValue signal)
+                        {
+                            if (signal.retval != null)
+                            {
+                                lastOne = signal.retval;
+                            }
+                            if (signal.breaksLoop())
+                            {
+                                break;
+                            }
+                        }
+                        else
+                        {
+                            lastOne = result;
+                        }
                     }
                     catch (BreakStatement | ContinueStatement stmt)
                     {
@@ -78,7 +123,7 @@ public class Loops
                     }
                     i++;
                     long seriously = i;
-                    c.setVariable("_", (cc, tt) -> new NumericValue(seriously).bindTo("_"));
+                    c.setVariable("_", (cc, tt) -> NumericValue.of(seriously).bindTo("_"));
                 }
                 //revering scope
                 c.setVariable("_", defaultVal);
@@ -92,12 +137,27 @@ public class Loops
             Value lastOne = Value.NULL;
             //scoping
             LazyValue defaultVal = c.getVariable("_");
-            c.setVariable("_", (cc, tt) -> new NumericValue(0).bindTo("_"));
+            c.setVariable("_", (cc, tt) -> NumericValue.of(0).bindTo("_"));
             while (i < limit && condition.evalValue(c, Context.BOOLEAN).getBoolean())
             {
                 try
                 {
-                    lastOne = expr.evalValue(c, t);
+                    Value result = expr.evalValue(c, t);
+                    if (result instanceof CompletionValue signal)
+                    {
+                        if (signal.retval != null)
+                        {
+                            lastOne = signal.retval;
+                        }
+                        if (signal.breaksLoop())
+                        {
+                            break;
+                        }
+                    }
+                    else
+                    {
+                        lastOne = result;
+                    }
                 }
                 catch (BreakStatement | ContinueStatement stmt)
                 {
@@ -112,7 +172,7 @@ public class Loops
                 }
                 i++;
                 long seriously = i;
-                c.setVariable("_", (cc, tt) -> new NumericValue(seriously).bindTo("_"));
+                c.setVariable("_", (cc, tt) -> NumericValue.of(seriously).bindTo("_"));
             }
             //revering scope
             c.setVariable("_", defaultVal);
@@ -132,10 +192,25 @@ public class Loops
             for (long i = 0; i < limit; i++)
             {
                 long whyYouAsk = i;
-                c.setVariable("_", (cc, tt) -> new NumericValue(whyYouAsk).bindTo("_"));
+                c.setVariable("_", (cc, tt) -> NumericValue.of(whyYouAsk).bindTo("_"));
                 try
                 {
-                    lastOne = expr.evalValue(c, t);
+                    Value result = expr.evalValue(c, t);
+                    if (result instanceof CompletionValue signal)
+                    {
+                        if (signal.retval != null)
+                        {
+                            lastOne = signal.retval;
+                        }
+                        if (signal.breaksLoop())
+                        {
+                            break;
+                        }
+                    }
+                    else
+                    {
+                        lastOne = result;
+                    }
                 }
                 catch (BreakStatement | ContinueStatement stmt)
                 {
@@ -157,9 +232,9 @@ public class Loops
 
         // map(list or Num, expr) => list_results
         // receives bounded variable '_' with the expression
-        expression.addLazyFunction("map", 2, (c, t, lv) ->
+        expression.addLazyFunctionWithDelegation("map", 2, false, false, (c, t, e, tok, lv) ->
         {
-            Value rval = lv.get(0).evalValue(c, Context.NONE);
+            Value rval = lv.get(0).evalValue(c, Context.ITERATOR);
             if (rval.isNull())
             {
                 return ListValue.lazyEmpty();
@@ -168,6 +243,11 @@ public class Loops
             {
                 throw new InternalExpressionException("First argument of 'map' function should be a list or iterator");
             }
+            if (t == Context.ITERATOR && rval instanceof final LazyListValue source && fusible(c, e, tok))
+            {
+                Value stage = new Stage(c, source, lv.get(1), false);
+                return (cc, tt) -> stage;
+            }
             Iterator<Value> iterator = alv.iterator();
             LazyValue expr = lv.get(1);
             //scoping
@@ -181,13 +261,29 @@ public class Loops
                     continue;
                 }
                 String variable = next.boundVariable;
-                next.bindTo("_");
+                Value boundNext = next.bindTo("_");
                 int doYouReally = i;
-                c.setVariable("_", (cc, tt) -> next);
-                c.setVariable("_i", (cc, tt) -> new NumericValue(doYouReally).bindTo("_i"));
+                c.setVariable("_", (cc, tt) -> boundNext);
+                c.setVariable("_i", (cc, tt) -> NumericValue.of(doYouReally).bindTo("_i"));
                 try
                 {
-                    result.add(expr.evalValue(c, t));
+                    Value value = expr.evalValue(c, t);
+                    if (value instanceof CompletionValue signal)
+                    {
+                        if (signal.retval != null)
+                        {
+                            result.add(signal.retval);
+                        }
+                        if (signal.breaksLoop())
+                        {
+                            next.boundVariable = variable;
+                            break;
+                        }
+                    }
+                    else
+                    {
+                        result.add(value);
+                    }
                 }
                 catch (BreakStatement | ContinueStatement stmt)
                 {
@@ -214,9 +310,9 @@ public class Loops
         // grep(list or num, expr) => list
         // receives bounded variable '_' with the expression, and "_i" with index
         // produces list of values for which the expression is true
-        expression.addLazyFunction("filter", 2, (c, t, lv) ->
+        expression.addLazyFunctionWithDelegation("filter", 2, false, false, (c, t, e, tok, lv) ->
         {
-            Value rval = lv.get(0).evalValue(c, Context.NONE);
+            Value rval = lv.get(0).evalValue(c, Context.ITERATOR);
             if (rval.isNull())
             {
                 return ListValue.lazyEmpty();
@@ -225,6 +321,11 @@ public class Loops
             {
                 throw new InternalExpressionException("First argument of 'filter' function should be a list or iterator");
             }
+            if (t == Context.ITERATOR && rval instanceof final LazyListValue source && fusible(c, e, tok))
+            {
+                Value stage = new Stage(c, source, lv.get(1), true);
+                return (cc, tt) -> stage;
+            }
             Iterator<Value> iterator = alv.iterator();
             LazyValue expr = lv.get(1);
             //scoping
@@ -238,13 +339,26 @@ public class Loops
                     continue;
                 }
                 String veriable = next.boundVariable;
-                next.bindTo("_");
+                Value boundNext = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
-                c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
+                c.setVariable("_", (cc, tt) -> boundNext);
+                c.setVariable("_i", (cc, tt) -> NumericValue.of(seriously).bindTo("_i"));
                 try
                 {
-                    if (expr.evalValue(c, Context.BOOLEAN).getBoolean())
+                    Value value = expr.evalValue(c, Context.BOOLEAN);
+                    if (value instanceof CompletionValue signal)
+                    {
+                        if (signal.retval != null && signal.retval.getBoolean())
+                        {
+                            result.add(next);
+                        }
+                        if (signal.breaksLoop())
+                        {
+                            next.boundVariable = veriable;
+                            break;
+                        }
+                    }
+                    else if (value.getBoolean())
                     {
                         result.add(next);
                     }
@@ -276,7 +390,7 @@ public class Loops
         // returns first element on the list for which the expr is true
         expression.addLazyFunction("first", 2, (c, t, lv) ->
         {
-            Value rval = lv.get(0).evalValue(c, Context.NONE);
+            Value rval = lv.get(0).evalValue(c, Context.ITERATOR);
             if (rval.isNull())
             {
                 return LazyValue.NULL;
@@ -298,10 +412,10 @@ public class Loops
                     continue;
                 }
                 String variable = next.boundVariable;
-                next.bindTo("_");
+                Value boundNext = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
-                c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
+                c.setVariable("_", (cc, tt) -> boundNext);
+                c.setVariable("_i", (cc, tt) -> NumericValue.of(seriously).bindTo("_i"));
                 try
                 {
                     if (expr.evalValue(c, Context.BOOLEAN).getBoolean())
@@ -336,7 +450,7 @@ public class Loops
         // returns true if expr is true for all items
         expression.addLazyFunction("all", 2, (c, t, lv) ->
         {
-            Value rval = lv.get(0).evalValue(c, Context.NONE);
+            Value rval = lv.get(0).evalValue(c, Context.ITERATOR);
             if (rval.isNull())
             {
                 return LazyValue.TRUE;
@@ -358,10 +472,10 @@ public class Loops
                     continue;
                 }
                 String variable = next.boundVariable;
-                next.bindTo("_");
+                Value boundNext = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
-                c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
+                c.setVariable("_", (cc, tt) -> boundNext);
+                c.setVariable("_i", (cc, tt) -> NumericValue.of(seriously).bindTo("_i"));
                 if (!expr.evalValue(c, Context.BOOLEAN).getBoolean())
                 {
                     result = LazyValue.FALSE;
@@ -389,7 +503,10 @@ public class Loops
             {
                 try
                 {
-                    body.evalValue(c, Context.VOID);
+                    if (body.evalValue(c, Context.VOID) instanceof CompletionValue signal && signal.breaksLoop())
+                    {
+                        break;
+                    }
                 }
                 catch (BreakStatement stmt)
                 {
@@ -409,7 +526,7 @@ public class Loops
         // can be substituted for first and all, but first is more efficient and all doesn't require knowing list size
         expression.addLazyFunction("for", 2, (c, t, lv) ->
         {
-            Value rval = lv.get(0).evalValue(c, Context.NONE);
+            Value rval = lv.get(0).evalValue(c, Context.ITERATOR);
             if (rval.isNull())
             {
                 return LazyValue.ZERO;
@@ -431,14 +548,30 @@ public class Loops
                     continue;
                 }
                 String variable = next.boundVariable;
-                next.bindTo("_");
+                Value boundNext = next.bindTo("_");
                 int seriously = i;
-                c.setVariable("_", (cc, tt) -> next);
-                c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
+                c.setVariable("_", (cc, tt) -> boundNext);
+                c.setVariable("_i", (cc, tt) -> NumericValue.of(seriously).bindTo("_i"));
                 Value result = Value.FALSE;
                 try
                 {
-                    result = expr.evalValue(c, t);
+                    Value value = expr.evalValue(c, t);
+                    if (value instanceof CompletionValue signal)
+                    {
+                        if (signal.retval != null)
+                        {
+                            result = signal.retval;
+                        }
+                        if (signal.breaksLoop())
+                        {
+                            next.boundVariable = variable;
+                            break;
+                        }
+                    }
+                    else
+                    {
+                        result = value;
+                    }
                 }
                 catch (BreakStatement | ContinueStatement stmt)
                 {
@@ -474,7 +607,7 @@ public class Loops
         expression.addLazyFunction("reduce", 3, (c, t, lv) ->
         {
 
-            Value rval = lv.get(0).evalValue(c, Context.NONE);
+            Value rval = lv.get(0).evalValue(c, Context.ITERATOR);
             if (rval.isNull())
             {
                 return ListValue.lazyEmpty();
@@ -505,15 +638,31 @@ public class Loops
                     continue;
                 }
                 String variable = next.boundVariable;
-                next.bindTo("_");
+                Value boundNext = next.bindTo("_");
                 Value promiseWontChangeYou = acc;
                 int seriously = i;
                 c.setVariable("_a", (cc, tt) -> promiseWontChangeYou.bindTo("_a"));
-                c.setVariable("_", (cc, tt) -> next);
-                c.setVariable("_i", (cc, tt) -> new NumericValue(seriously).bindTo("_i"));
+                c.setVariable("_", (cc, tt) -> boundNext);
+                c.setVariable("_i", (cc, tt) -> NumericValue.of(seriously).bindTo("_i"));
                 try
                 {
-                    acc = expr.evalValue(c, t);
+                    Value value = expr.evalValue(c, t);
+                    if (value instanceof CompletionValue signal)
+                    {
+                        if (signal.retval != null)
+                        {
+                            acc = signal.retval;
+                        }
+                        if (signal.breaksLoop())
+                        {
+                            next.boundVariable = variable;
+                            break;
+                        }
+                    }
+                    else
+                    {
+                        acc = value;
+                    }
                 }
                 catch (BreakStatement | ContinueStatement stmt)
                 {
@@ -539,4 +688,130 @@ public class Loops
             return (cc, tt) -> hopeItsEnoughPromise;
         });
     }
+
+    /**
+     * Whether map or filter can hand a lazy stage to the loop consuming it. A stage skips its expression for elements
+     * the consumer never asks for, like the ones after the match of first(), so the expression can't have side effects
+     */
+    private static boolean fusible(Context c, Expression expression, Token token)
+    {
+        return token.node != null && token.node.args.size() == 2
+                && Expression.isInvariant(c.host, expression, token.node.args.get(1), Set.of(), Set.of());
+    }
+
+    /**
+     * Lazy map or filter over an iterator, produced when the result is only iterated over by another loop function,
+     * like in reduce(filter(map(range(n), ...), ...), ...), so the intermediate lists are never built.
+     * Each element evaluates the expression when the consuming loop asks for it, with '_' and '_i' bound just for that evaluation.
+     */
+    private static class Stage extends LazyListValue
+    {
+        private final Context context;
+        private final LazyListValue source;
+        private final LazyValue expr;
+        private final boolean filter;
+        private int index;
+        private Value pending;
+        private boolean finished;
+
+        Stage(Context context, LazyListValue source, LazyValue expr, boolean filter)
+        {
+            this.context = context;
+            this.source = source;
+            this.expr = expr;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (pending == null && !finished)
+            {
+                advance();
+            }
+            return pending != null;
+        }
+
+        @Override
+        public Value next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Value value = pending;
+            pending = null;
+            return value;
+        }
+
+        private void advance()
+        {
+            LazyValue defaultVal = context.getVariable("_");
+            LazyValue iterVal = context.getVariable("_i");
+            try
+            {
+                while (pending == null && !finished && source.hasNext())
+                {
+                    Value next = source.next();
+                    int seriously = index++;
+                    if (next == Value.EOL)
+                    {
+                        continue;
+                    }
+                    String variable = next.boundVariable;
+                    Value boundNext = next.bindTo("_");
+                    context.setVariable("_", (cc, tt) -> boundNext);
+                    context.setVariable("_i", (cc, tt) -> NumericValue.of(seriously).bindTo("_i"));
+                    try
+                    {
+                        Value value = expr.evalValue(context, filter ? Context.BOOLEAN : Context.NONE);
+                        if (value instanceof CompletionValue signal)
+                        {
+                            emit(next, signal.retval);
+                            finished = signal.breaksLoop();
+                        }
+                        else
+                        {
+                            emit(next, value);
+                        }
+                    }
+                    catch (BreakStatement | ContinueStatement stmt)
+                    {
+                        emit(next, stmt.retval);
+                        finished = stmt instanceof BreakStatement;
+                    }
+                    finally
+                    {
+                        next.boundVariable = variable;
+                    }
+                }
+                if (pending == null)
+                {
+                    finished = true;
+                }
+            }
+            finally
+            {
+                context.setVariable("_", defaultVal);
+                context.setVariable("_i", iterVal);
+            }
+        }
+
+        private void emit(Value element, Value result)
+        {
+            if (result != null && (!filter || result.getBoolean()))
+            {
+                pending = filter ? element : result;
+            }
+        }
+
+        @Override
+        public void reset()
+        {
+            source.fatality();
+            index = 0;
+            pending = null;
+            finished = false;
+        }
+    }
 }
@@ -41,7 +41,8 @@ public class Operators
 
     public static void apply(Expression expression)
     {
-        expression.addBinaryOperator("+", "sum", precedence.get("addition+-"), true, Value::add, lv -> {
+        expression.addBinaryOperator("+", "sum", precedence.get("addition+-"), true, (v1, v2) ->
+                v1 instanceof NumericValue n1 && v2 instanceof NumericValue n2 ? NumericValue.sum(n1, n2) : v1.add(v2), lv -> {
             int size = lv.size();
             if (size == 0)
             {
@@ -55,7 +56,8 @@ public class Operators
             return accumulator;
         });
 
-        expression.addBinaryOperator("-", "difference", precedence.get("addition+-"), true, Value::subtract, lv -> {
+        expression.addBinaryOperator("-", "difference", precedence.get("addition+-"), true, (v1, v2) ->
+                v1 instanceof NumericValue n1 && v2 instanceof NumericValue n2 ? NumericValue.difference(n1, n2) : v1.subtract(v2), lv -> {
             int size = lv.size();
             if (size == 0)
             {
@@ -69,7 +71,8 @@ public class Operators
             return accumulator;
         });
 
-        expression.addBinaryOperator("*", "product", precedence.get("multiplication*/%"), true, Value::multiply, lv -> {
+        expression.addBinaryOperator("*", "product", precedence.get("multiplication*/%"), true, (v1, v2) ->
+                v1 instanceof NumericValue n1 && v2 instanceof NumericValue n2 ? NumericValue.product(n1, n2) : v1.multiply(v2), lv -> {
             int size = lv.size();
             if (size == 0)
             {
@@ -114,7 +117,7 @@ public class Operators
             {
                 accumulator = accumulator & NumericValue.asNumber(v).getLong();
             }
-            return new NumericValue(accumulator);
+            return NumericValue.of(accumulator);
         });
 
         expression.addFunction("bitwise_xor", lv -> {
@@ -128,7 +131,7 @@ public class Operators
             {
                 accumulator = accumulator ^ NumericValue.asNumber(v).getLong();
             }
-            return new NumericValue(accumulator);
+            return NumericValue.of(accumulator);
         });
 
         expression.addFunction("bitwise_or", lv -> {
@@ -142,7 +145,7 @@ public class Operators
             {
                 accumulator = accumulator | NumericValue.asNumber(v).getLong();
             }
-            return new NumericValue(accumulator);
+            return NumericValue.of(accumulator);
         });
 
         // lazy cause RHS is only conditional
@@ -217,7 +220,7 @@ public class Operators
 
         expression.addBinaryOperator("~", "match", precedence.get("attribute~:"), true, Value::in);
 
-        expression.addBinaryOperator(">", "decreasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(v1.compareTo(v2) > 0), lv -> {
+        expression.addBinaryOperator(">", "decreasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(compare(v1, v2) > 0), lv -> {
             int size = lv.size();
             if (size < 2)
             {
@@ -235,7 +238,7 @@ public class Operators
             return Value.TRUE;
         });
 
-        expression.addBinaryOperator(">=", "nonincreasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(v1.compareTo(v2) >= 0), lv -> {
+        expression.addBinaryOperator(">=", "nonincreasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(compare(v1, v2) >= 0), lv -> {
             int size = lv.size();
             if (size < 2)
             {
@@ -253,7 +256,7 @@ public class Operators
             return Value.TRUE;
         });
 
-        expression.addBinaryOperator("<", "increasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(v1.compareTo(v2) < 0), lv -> {
+        expression.addBinaryOperator("<", "increasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(compare(v1, v2) < 0), lv -> {
             int size = lv.size();
             if (size < 2)
             {
@@ -271,7 +274,7 @@ public class Operators
             return Value.TRUE;
         });
 
-        expression.addBinaryOperator("<=", "nondecreasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(v1.compareTo(v2) <= 0), lv -> {
+        expression.addBinaryOperator("<=", "nondecreasing", precedence.get("compare>=><=<"), false, (v1, v2) -> BooleanValue.of(compare(v1, v2) <= 0), lv -> {
             int size = lv.size();
             if (size < 2)
             {
@@ -536,4 +539,14 @@ public class Operators
         });
 
     }
+
+    // numbers compare on their primitive values directly, null keeps its own ordering
+    private static int compare(Value v1, Value v2)
+    {
+        if (v1 instanceof NumericValue n1 && v2 instanceof NumericValue n2 && !v1.isNull() && !v2.isNull())
+        {
+            return NumericValue.compare(n1, n2);
+        }
+        return v1.compareTo(v2);
+    }
 }
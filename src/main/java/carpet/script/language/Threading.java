@@ -2,14 +2,22 @@ package carpet.script.language;
 
 import carpet.script.Context;
 import carpet.script.Expression;
+import carpet.script.TaskPool;
 import carpet.script.argument.FunctionArgument;
 import carpet.script.exception.ExitStatement;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.value.AbstractListValue;
 import carpet.script.value.BooleanValue;
+import carpet.script.value.FunctionValue;
+import carpet.script.value.ListValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.ThreadValue;
 import carpet.script.value.Value;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
 public class Threading
 {
     public static void apply(Expression expression)
@@ -39,9 +47,82 @@ public class Threading
             return thread;
         });
 
+        // pmap(list, function, ...args) => list of function(element, ...args)
+        // calls run on the common fork-join pool when the function is provably pure, otherwise one by one
+        expression.addFunctionWithDelegation("pmap", -1, false, false, (c, t, expr, tok, lv) ->
+        {
+            if (lv.size() < 2)
+            {
+                throw new InternalExpressionException("'pmap' requires a list and a function to call");
+            }
+            List<Value> elements = elementsOf(lv.get(0), "pmap");
+            FunctionArgument functionArgument = FunctionArgument.findIn(c, expression.module, lv, 1, false, false);
+            FunctionValue function = functionArgument.function;
+            List<Value> extraArgs = functionArgument.args;
+            return ListValue.wrap(stream(c, function, elements).map(element ->
+            {
+                List<Value> args = new ArrayList<>(extraArgs.size() + 1);
+                args.add(element);
+                args.addAll(extraArgs);
+                return function.callInContext(c, Context.NONE, args).evalValue(c);
+            }));
+        });
+
+        // preduce(list, function, initial) => function(...function(function(initial, a), b)..., z)
+        // function has to be associative, since parts of the list are reduced separately and combined afterwards
+        expression.addFunctionWithDelegation("preduce", 3, false, false, (c, t, expr, tok, lv) ->
+        {
+            List<Value> elements = elementsOf(lv.get(0), "preduce");
+            FunctionArgument functionArgument = FunctionArgument.findIn(c, expression.module, lv, 1, false, false);
+            FunctionValue function = functionArgument.function;
+            Value initial = lv.get(lv.size() - 1);
+            return stream(c, function, elements)
+                    .reduce((a, b) -> function.callInContext(c, Context.NONE, List.of(a, b)).evalValue(c))
+                    .map(result -> function.callInContext(c, Context.NONE, List.of(initial, result)).evalValue(c))
+                    .orElse(initial);
+        });
 
+        // task_pool(pool, type, threads?) sets executor type for tasks of the pool: 'cached' (default), 'virtual' or 'bounded'
+        expression.addContextFunction("task_pool", -1, (c, t, lv) ->
+        {
+            if (lv.size() < 2 || lv.size() > 3)
+            {
+                throw new InternalExpressionException("'task_pool' requires a pool, its type and optionally number of threads");
+            }
+            TaskPool.Type type = TaskPool.Type.fromString(lv.get(1).getString());
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (lv.size() == 3)
+            {
+                threads = NumericValue.asNumber(lv.get(2)).getInt();
+                if (threads < 1)
+                {
+                    throw new InternalExpressionException("Task pool needs at least one thread");
+                }
+            }
+            c.host.configurePool(lv.get(0), type, threads);
+            return Value.NULL;
+        });
+
+        // task_count(), task_count(pool), task_count(pool, 'active'|'queued'|'completed')
         expression.addContextFunction("task_count", -1, (c, t, lv) ->
-                (!lv.isEmpty()) ? new NumericValue(c.host.taskCount(lv.get(0))) : new NumericValue(c.host.taskCount()));
+        {
+            if (lv.isEmpty())
+            {
+                return new NumericValue(c.host.taskCount());
+            }
+            if (lv.size() == 1)
+            {
+                return new NumericValue(c.host.taskCount(lv.get(0)));
+            }
+            TaskPool pool = c.host.taskPools().get(lv.get(0));
+            return switch (lv.get(1).getString())
+            {
+                case "active" -> new NumericValue(pool == null ? 0 : pool.active());
+                case "queued" -> new NumericValue(pool == null ? 0 : pool.queued());
+                case "completed" -> new NumericValue(pool == null ? 0 : pool.completed());
+                default -> throw new InternalExpressionException("Unknown task count: " + lv.get(1).getString() + ", expected 'active', 'queued' or 'completed'");
+            };
+        });
 
         expression.addUnaryFunction("task_value", v ->
         {
@@ -92,7 +173,7 @@ public class Threading
             }
             synchronized (c.host.getLock(lockValue))
             {
-                Value ret = lv.get(ind).evalValue(c, t);
+                Value ret = lv.get(ind).evalValue(c, t.inScope());
                 return (ct, tt) -> ret;
             }
         });
@@ -188,4 +269,23 @@ public class Threading
             return (cc, tt) -> BooleanValue.of(ret);
         });
     }
+
+    private static List<Value> elementsOf(Value value, String name)
+    {
+        if (value.isNull())
+        {
+            return List.of();
+        }
+        if (!(value instanceof final AbstractListValue list))
+        {
+            throw new InternalExpressionException("First argument of '" + name + "' should be a list or iterator");
+        }
+        return list.unpack();
+    }
+
+    // each call gets its own frame from callInContext, so pure functions don't share any state between workers
+    private static Stream<Value> stream(Context c, FunctionValue function, List<Value> elements)
+    {
+        return elements.size() > 1 && Expression.isParallelSafe(c.host, function) ? elements.parallelStream() : elements.stream();
+    }
 }
@@ -0,0 +1,213 @@
+package carpet.script.utils;
+
+import carpet.script.CarpetScriptServer;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.Tag;
+import net.minecraft.nbt.TagTypes;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Journaled storage of app data, enabled with 'journaled_data' in the app config.
+ * Instead of rewriting the whole data file on each save, only top-level keys that changed since the last save
+ * are appended to a journal next to it, and the data file is rewritten once the journal grows larger than the data itself.
+ * Each journal record is checksummed, so a record torn by a crash is cut off when the journal is replayed on load.
+ */
+public class AppDataJournal
+{
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final long MIN_COMPACTION_SIZE = 1 << 16;
+
+    // copies of the top-level entries as they were last saved, null if the saved state is not a compound tag
+    @Nullable
+    private Map<String, Tag> persisted;
+    private long journalSize;
+    private long compactionSize;
+
+    /**
+     * @param state       app data as it was loaded
+     * @param journalSize size of the journal left from a previous run
+     */
+    public AppDataJournal(@Nullable Tag state, long journalSize)
+    {
+        if (state instanceof CompoundTag compound)
+        {
+            persisted = new HashMap<>();
+            for (String key : compound.keySet())
+            {
+                persisted.put(key, compound.get(key).copy());
+            }
+            compactionSize = Math.max(MIN_COMPACTION_SIZE, compound.sizeInBytes());
+        }
+        else
+        {
+            compactionSize = MIN_COMPACTION_SIZE;
+        }
+        this.journalSize = journalSize;
+    }
+
+    public static Path journalOf(Path dataFile)
+    {
+        return dataFile.resolveSibling(dataFile.getFileName() + ".journal");
+    }
+
+    /**
+     * Queues changes since the last save to the journal, or rewrites the data file if the journal got too large
+     */
+    public void save(Path dataFile, Tag state, ScriptFileWriter writer)
+    {
+        Path journal = journalOf(dataFile);
+        if (!(state instanceof CompoundTag compound))
+        {
+            persisted = null;
+            writer.compact(journal, dataFile, state.copy());
+            return;
+        }
+        if (persisted == null)
+        {
+            // nothing to compare with, starting over from a full data file
+            CompoundTag snapshot = compound.copy();
+            persisted = new HashMap<>();
+            for (String key : snapshot.keySet())
+            {
+                persisted.put(key, snapshot.get(key));
+            }
+            writer.compact(journal, dataFile, snapshot);
+            compactionSize = Math.max(MIN_COMPACTION_SIZE, snapshot.sizeInBytes());
+            journalSize = 0;
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try
+        {
+            for (String key : compound.keySet())
+            {
+                Tag value = compound.get(key);
+                if (!value.equals(persisted.get(key)))
+                {
+                    value = value.copy();
+                    persisted.put(key, value);
+                    writeRecord(records, PUT, key, value);
+                }
+            }
+            for (Iterator<String> iterator = persisted.keySet().iterator(); iterator.hasNext(); )
+            {
+                String key = iterator.next();
+                if (!compound.contains(key))
+                {
+                    iterator.remove();
+                    writeRecord(records, REMOVE, key, null);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        if (records.size() == 0)
+        {
+            return;
+        }
+        // compaction runs after these records are written, so replaying the journal over the new data file changes nothing
+        writer.appendBytes(journal, records.toByteArray());
+        journalSize += records.size();
+        if (journalSize > compactionSize)
+        {
+            CompoundTag snapshot = new CompoundTag();
+            persisted.forEach(snapshot::put);
+            writer.compact(journal, dataFile, snapshot);
+            compactionSize = Math.max(MIN_COMPACTION_SIZE, snapshot.sizeInBytes());
+            journalSize = 0;
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream records, byte operation, String key, @Nullable Tag value) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeByte(operation);
+        payload.writeUTF(key);
+        if (value != null)
+        {
+            payload.writeByte(value.getId());
+            value.write(payload);
+        }
+        byte[] bytes = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        DataOutputStream out = new DataOutputStream(records);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+    }
+
+    /**
+     * Applies the journal of a data file to its loaded content. A torn record at the end, left by a crash, is cut off the journal
+     */
+    @Nullable
+    public static Tag replay(Path dataFile, @Nullable Tag base) throws IOException
+    {
+        Path journal = journalOf(dataFile);
+        if (!Files.exists(journal))
+        {
+            return base;
+        }
+        byte[] bytes = Files.readAllBytes(journal);
+        CompoundTag state = base instanceof CompoundTag compound ? compound : new CompoundTag();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int valid = 0;
+        while (bytes.length - valid >= 8)
+        {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > bytes.length - valid - 8)
+            {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, valid + 8, length);
+            if ((int) crc.getValue() != checksum)
+            {
+                break;
+            }
+            DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes, valid + 8, length));
+            byte operation = payload.readByte();
+            String key = payload.readUTF();
+            if (operation == PUT)
+            {
+                state.put(key, TagTypes.getType(payload.readByte()).load(payload, NbtAccounter.unlimitedHeap()));
+            }
+            else
+            {
+                state.remove(key);
+            }
+            in.skipNBytes(length);
+            valid += 8 + length;
+        }
+        if (valid < bytes.length)
+        {
+            CarpetScriptServer.LOG.warn("Discarding " + (bytes.length - valid) + " bytes of incomplete records at the end of " + journal);
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE))
+            {
+                channel.truncate(valid);
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,181 @@
+package carpet.script.utils;
+
+import carpet.script.external.Carpet;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.Clearable;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import net.minecraft.world.level.lighting.LightEngine;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Writes many blocks on the main thread, straight into chunk sections instead of going through the world for each of them.
+ * Clients get the changes the way the server batches block changes anyway, as one update per changed section each tick,
+ * light checks are deduplicated and queued on flush, and neighbours are only notified on flush, if at all.
+ * Without updates, blocks are placed as with the fillUpdates rule off, so nothing reacts to them.
+ * Blocks with block entities, old or new, still go through the world, since these need their whole lifecycle.
+ * Writes may be spread over several ticks, so work left from an earlier tick is flushed first, and chunks are looked up again,
+ * as they may have been unloaded in the meantime.
+ */
+public class BulkBlockWriter
+{
+    private final ServerLevel level;
+    private final boolean updates;
+    private final LongSet lightChecks = new LongOpenHashSet();
+    // positions to notify neighbours of, packed, as there may be millions of them
+    private final LongArrayList changed = new LongArrayList();
+    private LevelChunk chunk;
+    private int tick;
+    private int written;
+
+    public BulkBlockWriter(ServerLevel level, boolean updates)
+    {
+        this.level = level;
+        this.updates = updates;
+        this.tick = level.getServer().getTickCount();
+    }
+
+    private void checkTick()
+    {
+        int currentTick = level.getServer().getTickCount();
+        if (currentTick != tick)
+        {
+            flush();
+            tick = currentTick;
+        }
+    }
+
+    /**
+     * @return number of blocks changed so far
+     */
+    public int written()
+    {
+        return written;
+    }
+
+    /**
+     * @return true if the block changed
+     */
+    public boolean set(BlockPos pos, BlockState state)
+    {
+        int y = pos.getY();
+        if (level.isOutsideBuildHeight(y))
+        {
+            return false;
+        }
+        checkTick();
+        int cx = SectionPos.blockToSectionCoord(pos.getX());
+        int cz = SectionPos.blockToSectionCoord(pos.getZ());
+        if (chunk == null || chunk.getPos().x != cx || chunk.getPos().z != cz)
+        {
+            chunk = level.getChunk(cx, cz);
+        }
+        LevelChunkSection section = chunk.getSection(chunk.getSectionIndex(y));
+        int x = pos.getX() & 15;
+        int z = pos.getZ() & 15;
+        BlockState previous = section.getBlockState(x, y & 15, z);
+        if (previous == state)
+        {
+            return false;
+        }
+        if (previous.hasBlockEntity() || state.hasBlockEntity())
+        {
+            return place(pos, p -> level.setBlock(p, state, Block.UPDATE_CLIENTS));
+        }
+        boolean hadOnlyAir = section.hasOnlyAir();
+        section.setBlockState(x, y & 15, z, state, false);
+        for (Map.Entry<Heightmap.Types, Heightmap> heightmap : chunk.getHeightmaps())
+        {
+            heightmap.getValue().update(x, y, z, state);
+        }
+        boolean hasOnlyAir = section.hasOnlyAir();
+        if (hadOnlyAir != hasOnlyAir)
+        {
+            level.getChunkSource().getLightEngine().updateSectionStatus(pos, hasOnlyAir);
+            level.getChunkSource().onSectionEmptinessChanged(cx, SectionPos.blockToSectionCoord(y), cz, hasOnlyAir);
+        }
+        if (LightEngine.hasDifferentLightProperties(previous, state))
+        {
+            chunk.getSkyLightSources().update(chunk, x, y, z);
+            lightChecks.add(pos.asLong());
+        }
+        chunk.markUnsaved();
+        level.getChunkSource().blockChanged(pos);
+        level.onBlockStateChange(pos, previous, state);
+        if (updates)
+        {
+            if (!previous.is(state.getBlock()))
+            {
+                previous.affectNeighborsAfterRemoval(level, pos, false);
+            }
+            state.onPlace(level, pos, previous, false);
+            changed.add(pos.asLong());
+        }
+        written++;
+        return true;
+    }
+
+    /**
+     * Places a block through the world, for blocks with block entities, or placements that need more than a state, like block entity data
+     *
+     * @return true if the block changed
+     */
+    public boolean place(BlockPos pos, Predicate<BlockPos> placement)
+    {
+        checkTick();
+        ThreadLocal<Boolean> skipUpdates = Carpet.getImpendingFillSkipUpdates();
+        boolean previous = skipUpdates.get();
+        try
+        {
+            skipUpdates.set(!updates);
+            // as fill does, so containers don't spill their contents
+            Clearable.tryClear(level.getBlockEntity(pos));
+            if (!placement.test(pos))
+            {
+                return false;
+            }
+        }
+        finally
+        {
+            skipUpdates.set(previous);
+        }
+        if (updates)
+        {
+            changed.add(pos.asLong());
+        }
+        written++;
+        return true;
+    }
+
+    /**
+     * Queues light checks and notifies neighbours of blocks written since the last flush
+     */
+    public void flush()
+    {
+        LevelLightEngine lightEngine = level.getChunkSource().getLightEngine();
+        lightChecks.forEach(pos -> lightEngine.checkBlock(BlockPos.of(pos)));
+        lightChecks.clear();
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int i = 0, size = changed.size(); i < size; i++)
+        {
+            pos.set(changed.getLong(i));
+            BlockState state = level.getBlockState(pos);
+            state.updateNeighbourShapes(level, pos, Block.UPDATE_CLIENTS);
+            level.updateNeighborsAt(pos, state.getBlock());
+        }
+        changed.clear();
+        // chunks may be unloaded before the next write
+        chunk = null;
+    }
+}
@@ -0,0 +1,181 @@
+package carpet.script.utils;
+
+import carpet.script.ScriptHost;
+import carpet.script.value.EntityValue;
+import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.phys.AABB;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers entity_list() and entity_area() calls of the main thread from entities gathered once per dimension
+ * and entity descriptor, like 'zombie' or '*', instead of asking the world on each call.
+ * Gathered entities last until the tick ends, or the game calls into scarpet again, as entities may have moved in between,
+ * and are dropped early when scarpet itself spawns, moves or removes entities, drops items, breaks blocks, explodes, or runs a command.
+ * Area queries are answered from a grid of 16 block cells, built once a descriptor was asked for a few areas,
+ * so scripts making a single query cost no more than they did.
+ * Statistics are reported in system_info('scarpet_entity_queries').
+ */
+public class EntityQueryCache
+{
+    // entities are bucketed by their position, but their boxes can stick out of their cell by as much, same as the world does it
+    private static final double MAX_OVERHANG = 2.0;
+    // gathering all entities costs about as much as a few area queries
+    private static final int GRID_AFTER_QUERIES = 4;
+    private static final AtomicLong fromCache = new AtomicLong();
+    private static final AtomicLong fromWorld = new AtomicLong();
+
+    // main thread only
+    private static final Map<ServerLevel, EntityQueryCache> caches = new WeakHashMap<>();
+    // bumped from any thread, as tasks change entities too
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static class Entry
+    {
+        private List<? extends Entity> all;
+        private Long2ObjectOpenHashMap<List<Entity>> grid;
+        private int areaQueries;
+    }
+
+    private final int tick;
+    private final long builtGeneration;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private EntityQueryCache(int tick, long builtGeneration)
+    {
+        this.tick = tick;
+        this.builtGeneration = builtGeneration;
+    }
+
+    /**
+     * Drops everything gathered so far, after scarpet changed which entities there are, or where
+     */
+    public static void invalidate()
+    {
+        generation.incrementAndGet();
+    }
+
+    private static EntityQueryCache forLevel(ServerLevel level)
+    {
+        int tick = level.getServer().getTickCount();
+        long currentGeneration = generation.get();
+        EntityQueryCache cache = caches.get(level);
+        if (cache == null || cache.tick != tick || cache.builtGeneration != currentGeneration)
+        {
+            cache = new EntityQueryCache(tick, currentGeneration);
+            caches.put(level, cache);
+        }
+        return cache;
+    }
+
+    public static List<? extends Entity> list(ServerLevel level, String who, EntityValue.EntityClassDescriptor descriptor)
+    {
+        if (ScriptHost.mainThread != Thread.currentThread())
+        {
+            fromWorld.incrementAndGet();
+            return level.getEntities(descriptor.directType, descriptor.filteringPredicate);
+        }
+        Entry entry = forLevel(level).entries.computeIfAbsent(who, k -> new Entry());
+        if (entry.all == null)
+        {
+            fromWorld.incrementAndGet();
+            entry.all = level.getEntities(descriptor.directType, descriptor.filteringPredicate);
+            return entry.all;
+        }
+        fromCache.incrementAndGet();
+        // entities may have died since, from damage for instance
+        return entry.all.stream().filter(descriptor.filteringPredicate).toList();
+    }
+
+    public static List<? extends Entity> area(ServerLevel level, String who, EntityValue.EntityClassDescriptor descriptor, AABB area)
+    {
+        if (ScriptHost.mainThread != Thread.currentThread())
+        {
+            fromWorld.incrementAndGet();
+            return level.getEntities(descriptor.directType, area, descriptor.filteringPredicate);
+        }
+        Entry entry = forLevel(level).entries.computeIfAbsent(who, k -> new Entry());
+        if (entry.grid == null)
+        {
+            if (entry.all == null && ++entry.areaQueries < GRID_AFTER_QUERIES)
+            {
+                fromWorld.incrementAndGet();
+                return level.getEntities(descriptor.directType, area, descriptor.filteringPredicate);
+            }
+            if (entry.all == null)
+            {
+                entry.all = level.getEntities(descriptor.directType, descriptor.filteringPredicate);
+            }
+            entry.grid = new Long2ObjectOpenHashMap<>();
+            for (Entity entity : entry.all)
+            {
+                entry.grid.computeIfAbsent(SectionPos.asLong(entity.blockPosition()), k -> new ArrayList<>()).add(entity);
+            }
+        }
+        fromCache.incrementAndGet();
+        List<Entity> found = new ArrayList<>();
+        AABB reach = area.inflate(MAX_OVERHANG);
+        int minX = SectionPos.posToSectionCoord(reach.minX);
+        int minY = SectionPos.posToSectionCoord(reach.minY);
+        int minZ = SectionPos.posToSectionCoord(reach.minZ);
+        int maxX = SectionPos.posToSectionCoord(reach.maxX);
+        int maxY = SectionPos.posToSectionCoord(reach.maxY);
+        int maxZ = SectionPos.posToSectionCoord(reach.maxZ);
+        long cells = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (cells > entry.grid.size())
+        {
+            // area larger than the populated part of the grid, cheaper to go over the cells there are
+            for (List<Entity> cell : entry.grid.values())
+            {
+                collect(cell, area, descriptor, found);
+            }
+            return found;
+        }
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int y = minY; y <= maxY; y++)
+            {
+                for (int z = minZ; z <= maxZ; z++)
+                {
+                    List<Entity> cell = entry.grid.get(SectionPos.asLong(x, y, z));
+                    if (cell != null)
+                    {
+                        collect(cell, area, descriptor, found);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void collect(List<Entity> cell, AABB area, EntityValue.EntityClassDescriptor descriptor, List<Entity> found)
+    {
+        for (Entity entity : cell)
+        {
+            if (entity.getBoundingBox().intersects(area) && descriptor.filteringPredicate.test(entity))
+            {
+                found.add(entity);
+            }
+        }
+    }
+
+    public static Value statistics()
+    {
+        return MapValue.wrap(Map.of(
+                StringValue.of("cache"), NumericValue.of(fromCache.get()),
+                StringValue.of("world"), NumericValue.of(fromWorld.get())
+        ));
+    }
+}
@@ -30,6 +30,14 @@ public class GlocalFlag extends ThreadLocal<Boolean>
         return whileValueReturn(!initial, action);
     }
 
+    /**
+     * Opposite of {@link #getWhileDisabled(Supplier)}, for code running nested in a call that had the flag disabled
+     */
+    public <T> T getWhileEnabled(Supplier<T> action)
+    {
+        return whileValueReturn(initial, action);
+    }
+
     private <T> T whileValueReturn(boolean what, Supplier<T> action)
     {
         T result;
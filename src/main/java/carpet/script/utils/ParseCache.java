@@ -0,0 +1,96 @@
+package carpet.script.utils;
+
+import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded cache of strings parsed by scarpet, like item strings, nbt paths, selectors and patterns, and code itself.
+ * Entries are weighed by the length of their string, so a few long strings can't take as much room as many short ones,
+ * and least recently used entries are evicted first. Safe to use from task threads.
+ * Statistics of all caches are reported in system_info('scarpet_caches').
+ */
+public class ParseCache<V>
+{
+    // rough cost of an entry regardless of its string
+    private static final int ENTRY_WEIGHT = 32;
+    private static final List<ParseCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    @FunctionalInterface
+    public interface Parser<V, E extends Exception>
+    {
+        V parse(String input) throws E;
+    }
+
+    private final String name;
+    private final Cache<String, V> cache;
+
+    /**
+     * @param maxWeight total length of cached strings, plus a fixed cost per entry
+     */
+    public ParseCache(String name, long maxWeight)
+    {
+        this.name = name;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, V value) -> ENTRY_WEIGHT + key.length())
+                .recordStats()
+                .build();
+        caches.add(this);
+    }
+
+    /**
+     * Returns the parsed value, parsing and storing it if not cached yet. Failed parses are not cached
+     */
+    public <E extends Exception> V get(String input, Parser<V, E> parser) throws E
+    {
+        V value = cache.getIfPresent(input);
+        if (value == null)
+        {
+            // two threads may parse the same string at once, parsers have no side effects so that's fine
+            value = parser.parse(input);
+            cache.put(input, value);
+        }
+        return value;
+    }
+
+    /**
+     * For values that are made along with something else, so can't come out of a parser on their own
+     */
+    @Nullable
+    public V getIfPresent(String input)
+    {
+        return cache.getIfPresent(input);
+    }
+
+    public void put(String input, V value)
+    {
+        cache.put(input, value);
+    }
+
+    public static Value statistics()
+    {
+        Map<Value, Value> all = new HashMap<>();
+        for (ParseCache<?> parseCache : caches)
+        {
+            CacheStats stats = parseCache.cache.stats();
+            all.put(StringValue.of(parseCache.name), MapValue.wrap(Map.of(
+                    StringValue.of("size"), NumericValue.of(parseCache.cache.size()),
+                    StringValue.of("hits"), NumericValue.of(stats.hitCount()),
+                    StringValue.of("misses"), NumericValue.of(stats.missCount()),
+                    StringValue.of("evictions"), NumericValue.of(stats.evictionCount())
+            )));
+        }
+        return MapValue.wrap(all);
+    }
+}
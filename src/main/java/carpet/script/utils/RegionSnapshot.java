@@ -0,0 +1,97 @@
+package carpet.script.utils;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Copy of block states of a box in the world, taken on the main thread and safe to read from any thread afterwards.
+ * Copies are made per chunk section, which is a copy of its packed storage and palette, so taking a snapshot is much cheaper
+ * than reading blocks one by one. Parts of the box outside the build height are left out. Block entities are not included.
+ */
+public class RegionSnapshot
+{
+    public record Section(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, PalettedContainer<BlockState> states)
+    {
+        /**
+         * Calls the action for each block of the section that is within the box, y first, then z, then x.
+         * The test is run once for each distinct state in the section
+         *
+         * @return number of matching blocks
+         */
+        public int forEachMatching(Predicate<BlockState> test, BlockConsumer action)
+        {
+            Map<BlockState, Boolean> outcomes = new IdentityHashMap<>();
+            int matching = 0;
+            for (int y = minY; y <= maxY; y++)
+            {
+                for (int z = minZ; z <= maxZ; z++)
+                {
+                    for (int x = minX; x <= maxX; x++)
+                    {
+                        BlockState state = states.get(x & 15, y & 15, z & 15);
+                        if (outcomes.computeIfAbsent(state, test::test))
+                        {
+                            action.accept(x, y, z, state);
+                            matching++;
+                        }
+                    }
+                }
+            }
+            return matching;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BlockConsumer
+    {
+        void accept(int x, int y, int z, BlockState state);
+    }
+
+    public final ServerLevel level;
+    public final List<Section> sections;
+
+    private RegionSnapshot(ServerLevel level, List<Section> sections)
+    {
+        this.level = level;
+        this.sections = sections;
+    }
+
+    /**
+     * Has to be called on the main thread. Loads, or generates, chunks of the box if needed
+     */
+    public static RegionSnapshot capture(ServerLevel level, BlockPos from, BlockPos to)
+    {
+        int minX = Math.min(from.getX(), to.getX());
+        int minY = Math.max(Math.min(from.getY(), to.getY()), level.getMinY());
+        int minZ = Math.min(from.getZ(), to.getZ());
+        int maxX = Math.max(from.getX(), to.getX());
+        int maxY = Math.min(Math.max(from.getY(), to.getY()), level.getMaxY());
+        int maxZ = Math.max(from.getZ(), to.getZ());
+        List<Section> sections = new ArrayList<>();
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++)
+        {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++)
+            {
+                LevelChunk chunk = level.getChunk(cx, cz);
+                for (int sy = minY >> 4; sy <= maxY >> 4; sy++)
+                {
+                    sections.add(new Section(
+                            Math.max(minX, cx << 4), Math.max(minY, sy << 4), Math.max(minZ, cz << 4),
+                            Math.min(maxX, (cx << 4) + 15), Math.min(maxY, (sy << 4) + 15), Math.min(maxZ, (cz << 4) + 15),
+                            chunk.getSection(chunk.getSectionIndex(sy << 4)).getStates().copy()
+                    ));
+                }
+            }
+        }
+        return new RegionSnapshot(level, sections);
+    }
+}
@@ -0,0 +1,313 @@
+package carpet.script.utils;
+
+import carpet.script.CarpetScriptServer;
+import carpet.script.argument.FileArgument;
+import net.minecraft.nbt.Tag;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind queue for app data and files, so that saving doesn't stall the server thread.
+ * Writes are snapshotted and handed to a single writer thread, repeated writes to the same file are coalesced,
+ * and reads check {@link #pending(Path)} to see writes that haven't reached the disk yet.
+ * Reads are expected to hold {@link FileArgument#writeIOSync}, same as the writer thread does when writing,
+ * so a file is never read while it is being written.
+ */
+public class ScriptFileWriter
+{
+    private sealed interface Operation permits Replace, Append, Delete, Compact
+    {
+    }
+
+    private record Replace(Tag tag) implements Operation
+    {
+    }
+
+    private record Append(ByteArrayOutputStream bytes) implements Operation
+    {
+    }
+
+    private record Delete() implements Operation
+    {
+    }
+
+    // writes the base file and then deletes the journal the operation is queued for
+    private record Compact(Path base, Tag tag) implements Operation
+    {
+    }
+
+    /**
+     * Content of a file according to writes that haven't been done yet
+     *
+     * @param truncated content on disk doesn't matter anymore
+     * @param tag       tag replacing the file, if that's the last thing written to it
+     * @param appended  text appended after the disk content, or after the replacement
+     */
+    public record Pending(boolean truncated, @Nullable Tag tag, String appended)
+    {
+        public boolean deleted()
+        {
+            return truncated && tag == null && appended.isEmpty();
+        }
+    }
+
+    private final Map<Path, List<Operation>> queue = new LinkedHashMap<>();
+    @Nullable
+    private Thread thread;
+    private boolean busy;
+    private boolean closed;
+
+    /**
+     * Queues writing a tag to a file, replacing anything written to it so far. The tag is copied, so it can be modified afterwards
+     */
+    public void writeTag(Path path, Tag tag)
+    {
+        enqueue(path, new Replace(tag.copy()));
+    }
+
+    public void append(Path path, String text)
+    {
+        appendBytes(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void appendBytes(Path path, byte[] bytes)
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length);
+        buffer.writeBytes(bytes);
+        enqueue(path, new Append(buffer));
+    }
+
+    /**
+     * Queues replacing the base file of a journal with a full tag, and deleting the journal afterwards.
+     * Runs after the writes queued for the journal so far, so a crash in between leaves a journal that replays to the same state.
+     * The tag is not copied and must not be modified afterwards
+     */
+    public void compact(Path journal, Path base, Tag tag)
+    {
+        enqueue(journal, new Compact(base.toAbsolutePath().normalize(), tag));
+    }
+
+    public void delete(Path path)
+    {
+        enqueue(path, new Delete());
+    }
+
+    private void enqueue(Path path, Operation operation)
+    {
+        path = path.toAbsolutePath().normalize();
+        synchronized (queue)
+        {
+            if (!closed)
+            {
+                add(path, operation);
+                return;
+            }
+        }
+        // late writes after shutdown are just done in place
+        synchronized (FileArgument.writeIOSync)
+        {
+            run(path, List.of(operation));
+        }
+    }
+
+    // called holding the queue lock
+    private void add(Path path, Operation operation)
+    {
+        List<Operation> operations = queue.computeIfAbsent(path, p -> new ArrayList<>());
+        if (operation instanceof Append append && !operations.isEmpty() && operations.get(operations.size() - 1) instanceof Append last)
+        {
+            last.bytes().writeBytes(append.bytes().toByteArray());
+        }
+        else
+        {
+            if (operation instanceof Replace || operation instanceof Delete)
+            {
+                // file gets overwritten anyways
+                operations.clear();
+            }
+            operations.add(operation);
+        }
+        if (thread == null)
+        {
+            thread = new Thread(this::work, "Scarpet file writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        queue.notifyAll();
+    }
+
+    /**
+     * @return writes to the file that are still waiting, or null if there are none
+     */
+    @Nullable
+    public Pending pending(Path path)
+    {
+        path = path.toAbsolutePath().normalize();
+        synchronized (queue)
+        {
+            List<Operation> operations = queue.get(path);
+            if (operations == null)
+            {
+                return null;
+            }
+            boolean truncated = false;
+            Tag tag = null;
+            ByteArrayOutputStream appended = new ByteArrayOutputStream();
+            for (Operation operation : operations)
+            {
+                switch (operation)
+                {
+                    case Replace replace ->
+                    {
+                        truncated = true;
+                        tag = replace.tag().copy();
+                        appended.reset();
+                    }
+                    case Delete delete ->
+                    {
+                        truncated = true;
+                        tag = null;
+                        appended.reset();
+                    }
+                    case Compact compact ->
+                    {
+                        truncated = true;
+                        tag = null;
+                        appended.reset();
+                    }
+                    case Append append -> appended.writeBytes(append.bytes().toByteArray());
+                }
+            }
+            return new Pending(truncated, tag, appended.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Waits until all queued writes reach the disk. Must not be called while holding {@link FileArgument#writeIOSync}
+     */
+    public void flush()
+    {
+        synchronized (queue)
+        {
+            while (busy || !queue.isEmpty())
+            {
+                try
+                {
+                    queue.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes all writes and stops the writer thread. Writes after that are not deferred anymore
+     */
+    public void close()
+    {
+        flush();
+        synchronized (queue)
+        {
+            closed = true;
+            queue.notifyAll();
+        }
+    }
+
+    private void work()
+    {
+        while (true)
+        {
+            Path path;
+            synchronized (queue)
+            {
+                while (queue.isEmpty() && !closed)
+                {
+                    try
+                    {
+                        queue.wait();
+                    }
+                    catch (InterruptedException ignored)
+                    {
+                    }
+                }
+                if (queue.isEmpty())
+                {
+                    thread = null;
+                    return;
+                }
+                path = queue.keySet().iterator().next();
+            }
+            synchronized (FileArgument.writeIOSync)
+            {
+                List<Operation> operations;
+                synchronized (queue)
+                {
+                    operations = queue.remove(path);
+                    busy = true;
+                }
+                run(path, operations);
+            }
+            synchronized (queue)
+            {
+                busy = false;
+                queue.notifyAll();
+            }
+        }
+    }
+
+    private static void run(Path path, List<Operation> operations)
+    {
+        try
+        {
+            for (Operation operation : operations)
+            {
+                switch (operation)
+                {
+                    case Replace replace ->
+                    {
+                        createParent(path);
+                        FileArgument.writeTagDisk(replace.tag(), path, false);
+                    }
+                    case Append append ->
+                    {
+                        createParent(path);
+                        Files.write(path, append.bytes().toByteArray(), StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+                    }
+                    case Delete delete -> Files.deleteIfExists(path);
+                    case Compact compact ->
+                    {
+                        createParent(compact.base());
+                        FileArgument.writeTagDisk(compact.tag(), compact.base(), false);
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            CarpetScriptServer.LOG.warn("Failed to write " + path, e);
+        }
+    }
+
+    private static void createParent(Path path) throws IOException
+    {
+        if (path.getParent() != null && !Files.exists(path.getParent()))
+        {
+            Files.createDirectories(path.getParent());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package carpet.script.utils;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads block states for block iterators like volume() and scan(), looking up the chunk and the section
+ * only when iteration moves to another section, instead of for every block.
+ * States are read from the live section when asked for, so changes made along the way are seen.
+ * Sections are looked up again after the server ticked, since chunks may have been unloaded in the meantime.
+ */
+public class SectionBlockReader
+{
+    private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+    private static final BlockState VOID_AIR = Blocks.VOID_AIR.defaultBlockState();
+
+    private final ServerLevel level;
+    private final boolean debug;
+    private int tick;
+    private int sectionX;
+    private int sectionY;
+    private int sectionZ;
+    @Nullable
+    private LevelChunkSection section;
+    private boolean resolved;
+    private boolean plainAir;
+
+    public SectionBlockReader(ServerLevel level)
+    {
+        this.level = level;
+        // debug worlds compute their blocks from coordinates
+        this.debug = level.isDebug();
+    }
+
+    public ServerLevel level()
+    {
+        return level;
+    }
+
+    /**
+     * @return section holding the block, or null if it is outside the build height
+     */
+    @Nullable
+    private LevelChunkSection section(int x, int y, int z)
+    {
+        int sx = x >> 4;
+        int sy = y >> 4;
+        int sz = z >> 4;
+        int currentTick = level.getServer().getTickCount();
+        if (resolved && sx == sectionX && sy == sectionY && sz == sectionZ && currentTick == tick)
+        {
+            return section;
+        }
+        sectionX = sx;
+        sectionY = sy;
+        sectionZ = sz;
+        tick = currentTick;
+        resolved = true;
+        if (level.isOutsideBuildHeight(y))
+        {
+            section = null;
+        }
+        else
+        {
+            LevelChunk chunk = level.getChunk(sx, sz);
+            section = chunk.getSection(chunk.getSectionIndex(y));
+        }
+        plainAir = section != null && section.hasOnlyAir() && !section.getStates().maybeHas(state -> state != AIR);
+        return section;
+    }
+
+    public BlockState getBlockState(int x, int y, int z)
+    {
+        if (debug)
+        {
+            return level.getBlockState(new BlockPos(x, y, z));
+        }
+        LevelChunkSection blocks = section(x, y, z);
+        if (blocks == null)
+        {
+            return VOID_AIR;
+        }
+        return blocks.getBlockState(x & 15, y & 15, z & 15);
+    }
+
+    /**
+     * @return true if the block is in a section made of nothing but plain air, i.e. no cave or void air either,
+     * as it was when iteration entered the section in the current tick
+     */
+    public boolean inPlainAir(int x, int y, int z)
+    {
+        if (debug)
+        {
+            return false;
+        }
+        section(x, y, z);
+        return plainAir;
+    }
+}
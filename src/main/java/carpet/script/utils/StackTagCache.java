@@ -0,0 +1,80 @@
+package carpet.script.utils;
+
+import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.component.DataComponentPatch;
+import net.minecraft.core.component.DataComponentType;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoded nbt of item stacks, kept for each stack until it changes, as apps scanning inventories
+ * tend to look at the same, unchanged stacks over and over.
+ * Stacks are told apart by identity, and a stack counts as unchanged while its item, count and components are the same.
+ * Components are cheap to compare while unchanged, since stacks hand out the same component map until they are modified.
+ * Cached tags are shared, so they must not be modified, only copied.
+ * Statistics are reported in system_info('scarpet_item_nbt').
+ */
+public class StackTagCache
+{
+    private record Encoded(Item item, int count, DataComponentPatch components, RegistryAccess regs, Tag tag)
+    {
+        boolean matches(ItemStack stack, DataComponentPatch components, RegistryAccess regs)
+        {
+            return item == stack.getItem() && count == stack.getCount() && this.regs == regs && this.components.equals(components);
+        }
+    }
+
+    // weak keys are compared by identity
+    private static final Cache<ItemStack, Encoded> cache = CacheBuilder.newBuilder().weakKeys().maximumSize(1 << 14).build();
+    private static final AtomicLong encoded = new AtomicLong();
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong components = new AtomicLong();
+
+    public static Tag encode(ItemStack stack, RegistryAccess regs)
+    {
+        DataComponentPatch patch = stack.getComponentsPatch();
+        Encoded entry = cache.getIfPresent(stack);
+        if (entry != null && entry.matches(stack, patch, regs))
+        {
+            reused.incrementAndGet();
+            return entry.tag();
+        }
+        encoded.incrementAndGet();
+        Tag tag = ItemStack.CODEC.encodeStart(regs.createSerializationContext(NbtOps.INSTANCE), stack).getOrThrow();
+        cache.put(stack, new Encoded(stack.getItem(), stack.getCount(), patch, regs, tag));
+        return tag;
+    }
+
+    /**
+     * Encodes a single component of a stack, as it would show in the components of the whole stack
+     *
+     * @param value value of the component from the components patch of the stack
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Tag encodeComponent(DataComponentType<T> type, Object value, RegistryAccess regs)
+    {
+        components.incrementAndGet();
+        return type.codecOrThrow().encodeStart(regs.createSerializationContext(NbtOps.INSTANCE), (T) value).getOrThrow();
+    }
+
+    public static Value statistics()
+    {
+        return MapValue.wrap(Map.of(
+                StringValue.of("encoded"), NumericValue.of(encoded.get()),
+                StringValue.of("reused"), NumericValue.of(reused.get()),
+                StringValue.of("components"), NumericValue.of(components.get()),
+                StringValue.of("size"), NumericValue.of(cache.size())
+        ));
+    }
+}
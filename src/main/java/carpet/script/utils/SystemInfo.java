@@ -2,6 +2,7 @@ package carpet.script.utils;
 
 import carpet.script.CarpetContext;
 import carpet.script.CarpetScriptHost;
+import carpet.script.ExpressionCompiler;
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
 import carpet.script.value.BooleanValue;
@@ -186,6 +187,10 @@ public class SystemInfo
             return ListValue.of(new NumericValue(rotation.x), new NumericValue(rotation.y));
         });
         put("scarpet_version", c -> StringValue.of(Carpet.getCarpetVersion()));
+        put("scarpet_caches", c -> ParseCache.statistics());
+        put("scarpet_entity_queries", c -> EntityQueryCache.statistics());
+        put("scarpet_item_nbt", c -> StackTagCache.statistics());
+        put("scarpet_compiled_functions", c -> ExpressionCompiler.statistics());
     }};
 
     public static Value get(String what, CarpetContext cc)
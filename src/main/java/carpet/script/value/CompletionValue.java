@@ -0,0 +1,71 @@
+package carpet.script.value;
+
+import carpet.script.exception.BreakStatement;
+import carpet.script.exception.ContinueStatement;
+import carpet.script.exception.ExitStatement;
+import carpet.script.exception.ReturnStatement;
+
+import javax.annotation.Nullable;
+
+/**
+ * Result of return, break or continue that the optimizer proved to complete locally,
+ * returned through regular evaluation up to the enclosing function or loop instead of being thrown
+ */
+public class CompletionValue extends FrameworkValue
+{
+    public enum Kind
+    {
+        RETURN, BREAK, CONTINUE
+    }
+
+    public static final CompletionValue BREAK = new CompletionValue(Kind.BREAK, null);
+    public static final CompletionValue CONTINUE = new CompletionValue(Kind.CONTINUE, null);
+
+    public final Kind kind;
+    @Nullable
+    public final Value retval;
+
+    private CompletionValue(Kind kind, @Nullable Value retval)
+    {
+        this.kind = kind;
+        this.retval = retval;
+    }
+
+    public static CompletionValue returning(Value value)
+    {
+        return new CompletionValue(Kind.RETURN, value);
+    }
+
+    public static CompletionValue breaking(@Nullable Value value)
+    {
+        return value == null ? BREAK : new CompletionValue(Kind.BREAK, value);
+    }
+
+    public static CompletionValue continuing(@Nullable Value value)
+    {
+        return value == null ? CONTINUE : new CompletionValue(Kind.CONTINUE, value);
+    }
+
+    /**
+     * @return true for break, false for continue. Return completions cannot end in a loop,
+     * so they fall back to the regular statement exception
+     */
+    public boolean breaksLoop()
+    {
+        if (kind == Kind.RETURN)
+        {
+            throw toStatement();
+        }
+        return kind == Kind.BREAK;
+    }
+
+    public ExitStatement toStatement()
+    {
+        return switch (kind)
+        {
+            case RETURN -> new ReturnStatement(retval);
+            case BREAK -> new BreakStatement(retval);
+            case CONTINUE -> new ContinueStatement(retval);
+        };
+    }
+}
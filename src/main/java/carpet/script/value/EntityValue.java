@@ -11,6 +11,8 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.external.Carpet;
 import carpet.script.utils.EntityTools;
 import carpet.script.utils.InputValidator;
+import carpet.script.utils.EntityQueryCache;
+import carpet.script.utils.ParseCache;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.commands.CommandSourceStack;
@@ -112,19 +114,13 @@ public class EntityValue extends Value
         return e == null ? Value.NULL : new EntityValue(e);
     }
 
-    private static final Map<String, EntitySelector> selectorCache = new HashMap<>();
+    private static final ParseCache<EntitySelector> selectorCache = new ParseCache<>("selectors", 1 << 16);
 
     public static Collection<? extends Entity> getEntitiesFromSelector(CommandSourceStack source, String selector)
     {
         try
         {
-            EntitySelector entitySelector = selectorCache.get(selector);
-            if (entitySelector != null)
-            {
-                return entitySelector.findEntities(source.withMaximumPermission(4));
-            }
-            entitySelector = new EntitySelectorParser(new StringReader(selector), true).parse();
-            selectorCache.put(selector, entitySelector);
+            EntitySelector entitySelector = selectorCache.get(selector, s -> new EntitySelectorParser(new StringReader(s), true).parse());
             return entitySelector.findEntities(source.withMaximumPermission(4));
         }
         catch (CommandSyntaxException e)
@@ -400,15 +396,43 @@ public class EntityValue extends Value
         }};
     }
 
+    /**
+     * Entity feature looked up once, for query() calls that always ask for the same one
+     */
+    public record Accessor(String name, BiFunction<Entity, Value, Value> function)
+    {
+    }
+
+    /**
+     * @return null if there is no such feature
+     */
+    @Nullable
+    public static Accessor accessor(String what)
+    {
+        BiFunction<Entity, Value, Value> function = featureAccessors.get(what);
+        return function == null ? null : new Accessor(what, function);
+    }
+
     public Value get(String what, @Nullable Value arg)
     {
-        if (!(featureAccessors.containsKey(what)))
+        BiFunction<Entity, Value, Value> function = featureAccessors.get(what);
+        if (function == null)
         {
             throw new InternalExpressionException("Unknown entity feature: " + what);
         }
+        return get(what, function, arg);
+    }
+
+    public Value get(Accessor accessor, @Nullable Value arg)
+    {
+        return get(accessor.name(), accessor.function(), arg);
+    }
+
+    private Value get(String what, BiFunction<Entity, Value, Value> function, @Nullable Value arg)
+    {
         try
         {
-            return featureAccessors.get(what).apply(getEntity(), arg);
+            return function.apply(getEntity(), arg);
         }
         catch (NullPointerException npe)
         {
@@ -874,15 +898,47 @@ public class EntityValue extends Value
         });
     }};
 
+    /**
+     * Entity action looked up once, for modify() calls that always do the same one
+     */
+    public record Modifier(String name, BiConsumer<Entity, Value> action, boolean relocating)
+    {
+    }
+
+    /**
+     * @return null if there is no such action
+     */
+    @Nullable
+    public static Modifier modifier(String what)
+    {
+        BiConsumer<Entity, Value> action = featureModifiers.get(what);
+        return action == null ? null : new Modifier(what, action, RELOCATING_FEATURES.contains(what));
+    }
+
     public void set(String what, @Nullable Value toWhat)
     {
-        if (!(featureModifiers.containsKey(what)))
+        BiConsumer<Entity, Value> action = featureModifiers.get(what);
+        if (action == null)
         {
             throw new InternalExpressionException("Unknown entity action: " + what);
         }
+        set(what, action, RELOCATING_FEATURES.contains(what), toWhat);
+    }
+
+    public void set(Modifier modifier, @Nullable Value toWhat)
+    {
+        set(modifier.name(), modifier.action(), modifier.relocating(), toWhat);
+    }
+
+    private void set(String what, BiConsumer<Entity, Value> action, boolean relocating, @Nullable Value toWhat)
+    {
         try
         {
-            featureModifiers.get(what).accept(getEntity(), toWhat);
+            action.accept(getEntity(), toWhat);
+            if (relocating)
+            {
+                EntityQueryCache.invalidate();
+            }
         }
         catch (NullPointerException npe)
         {
@@ -939,6 +995,12 @@ public class EntityValue extends Value
         }
     }
 
+    // modifications after which entities are gone or elsewhere
+    private static final Set<String> RELOCATING_FEATURES = Set.of(
+            "remove", "kill", "location", "pos", "x", "y", "z", "move",
+            "dismount", "mount", "drop_passengers", "mount_passengers", "nbt", "nbt_merge"
+    );
+
     private static final Map<String, BiConsumer<Entity, Value>> featureModifiers = new HashMap<String, BiConsumer<Entity, Value>>()
     {{
         put("remove", (entity, value) -> entity.discard()); // using discard here - will see other options if valid
@@ -4,6 +4,7 @@ import carpet.script.CarpetScriptServer;
 import carpet.script.Context;
 import carpet.script.Expression;
 import carpet.script.Fluff;
+import carpet.script.FrameLayout;
 import carpet.script.LazyValue;
 import carpet.script.Module;
 import carpet.script.Token;
@@ -31,18 +32,25 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
     private final Token token;
     private final String name;
     private final LazyValue body;
+    @Nullable
+    private final FrameLayout frameLayout;
+    // frame slots of args and varArgs, resolved once
+    @Nullable
+    private final int[] argumentSlots;
     private Map<String, LazyValue> outerState;
     private final List<String> args;
     private final String varArgs;
     private static long variantCounter = 1;
     private long variant;
 
-    private FunctionValue(Expression expression, Token token, String name, LazyValue body, List<String> args, String varArgs)
+    private FunctionValue(Expression expression, Token token, String name, LazyValue body, List<String> args, String varArgs, @Nullable int[] argumentSlots)
     {
         this.expression = expression;
         this.token = token;
         this.name = name;
         this.body = body;
+        this.frameLayout = body instanceof FrameLayout.Body compiled ? compiled.layout() : null;
+        this.argumentSlots = argumentSlots;
         this.args = args;
         this.varArgs = varArgs;
         this.outerState = null;
@@ -55,6 +63,20 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         this.token = token;
         this.name = name;
         this.body = body;
+        this.frameLayout = body instanceof FrameLayout.Body compiled ? compiled.layout() : null;
+        if (frameLayout != null)
+        {
+            List<String> names = new ArrayList<>(args);
+            if (varArgs != null)
+            {
+                names.add(varArgs);
+            }
+            this.argumentSlots = frameLayout.slotsOf(names);
+        }
+        else
+        {
+            this.argumentSlots = null;
+        }
         this.args = args;
         this.varArgs = varArgs;
         this.outerState = outerState;
@@ -98,7 +120,7 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
     @Override
     protected Value clone()
     {
-        FunctionValue ret = new FunctionValue(expression, token, name, body, args, varArgs);
+        FunctionValue ret = new FunctionValue(expression, token, name, body, args, varArgs, argumentSlots);
         ret.outerState = this.outerState;
         ret.variant = this.variant;
         return ret;
@@ -239,7 +261,7 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
                             ". Should be at least " + args.size() + ", not " + params.size() + " like " + argList
             );
         });
-        Context newFrame = c.recreate();
+        Context newFrame = frameLayout == null ? c.recreate() : c.recreate(frameLayout);
         if (freshNewCallingThread != null)
         {
             newFrame.setThreadContext(freshNewCallingThread);
@@ -253,7 +275,7 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         {
             String arg = args.get(i);
             Value val = params.get(i).reboundedTo(arg); // todo check if we need to copy that
-            newFrame.setVariable(arg, (cc, tt) -> val);
+            bind(newFrame, i, arg, val);
         }
         if (varArgs != null)
         {
@@ -263,13 +285,24 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
                 extraParams.add(params.get(i).reboundedTo(null)); // copy by value I guess
             }
             Value rest = ListValue.wrap(extraParams).bindTo(varArgs); // didn't we just copied that?
-            newFrame.setVariable(varArgs, (cc, tt) -> rest);
-
+            bind(newFrame, args.size(), varArgs, rest);
+        }
+        if (body instanceof FrameLayout.Body slotted)
+        {
+            slotted.invoked();
         }
         Value retVal;
         try
         {
-            retVal = body.evalValue(newFrame, type); // todo not sure if we need to propagete type / consider boolean context in defined functions - answer seems ye
+            retVal = body.evalValue(newFrame, type.inScope()); // todo not sure if we need to propagete type / consider boolean context in defined functions - answer seems ye
+            if (retVal instanceof CompletionValue completion)
+            {
+                if (completion.kind != CompletionValue.Kind.RETURN)
+                {
+                    throw new ExpressionException(c, e, t, "'continue' and 'break' can only be called inside loop function bodies");
+                }
+                retVal = completion.retval;
+            }
         }
         catch (BreakStatement | ContinueStatement exc)
         {
@@ -283,6 +316,18 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         return (cc, tt) -> otherRetVal;
     }
 
+    private void bind(Context frame, int index, String arg, Value val)
+    {
+        if (argumentSlots != null && argumentSlots[index] >= 0 && frame.variables instanceof FrameLayout.Frame slotted)
+        {
+            slotted.bind(argumentSlots[index], val);
+        }
+        else
+        {
+            frame.setVariable(arg, (cc, tt) -> val);
+        }
+    }
+
     public Expression getExpression()
     {
         return expression;
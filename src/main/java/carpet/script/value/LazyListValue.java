@@ -84,7 +84,7 @@ public abstract class LazyListValue extends AbstractListValue implements Iterato
             @Override
             public Value next()
             {
-                Value val = new NumericValue(current);
+                Value val = NumericValue.of(current);
                 current += stepp;
                 return val;
             }
@@ -6,6 +6,8 @@ import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
 import carpet.script.external.Vanilla;
 import carpet.script.utils.EquipmentInventory;
+import carpet.script.utils.ParseCache;
+import carpet.script.utils.StackTagCache;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 
@@ -15,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -25,7 +28,9 @@ import net.minecraft.commands.arguments.item.ItemParser;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Holder;
 import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.component.DataComponentType;
 import net.minecraft.core.particles.ItemParticleOption;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.nbt.CollectionTag;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.EndTag;
@@ -64,6 +69,10 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     private Tag nbtTag = null;
     private Supplier<Tag> nbtSupplier = null;
     private boolean owned = false;
+    // stack the tag is encoded from, until it is, so single components can be read without encoding the rest
+    @Nullable
+    private ItemStack stack = null;
+    private RegistryAccess regs = null;
     private static TagParser<Tag> tagParser = TagParser.create(NbtOps.INSTANCE);
 
     private NBTSerializableValue()
@@ -109,7 +118,9 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     public static Value fromStack(ItemStack stack, RegistryAccess regs)
     {
         NBTSerializableValue value = new NBTSerializableValue();
-        value.nbtSupplier = () -> ItemStack.CODEC.encodeStart(regs.createSerializationContext(NbtOps.INSTANCE), stack).getOrThrow();
+        value.nbtSupplier = () -> StackTagCache.encode(stack, regs);
+        value.stack = stack;
+        value.regs = regs;
         return value;
     }
 
@@ -159,6 +170,8 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         copy.nbtSupplier = this.nbtSupplier;
         copy.nbtString = this.nbtString;
         copy.owned = this.owned;
+        copy.stack = this.stack;
+        copy.regs = this.regs;
         return copy;
     }
 
@@ -337,7 +350,7 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         }
     }
 
-    private static final Map<String, ItemInput> itemCache = new HashMap<>();
+    private static final ParseCache<ItemInput> itemCache = new ParseCache<>("items", 1 << 21);
 
     public static ItemStack parseItem(String itemString, RegistryAccess regs)
     {
@@ -351,19 +364,11 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         }
         try
         {
-            ItemInput res = itemCache.get(itemString);  // [SCARY SHIT] persistent caches over server reloads
-            if (res != null)
-            {
-                return res.createItemStack(1, false);
-            }
-            ItemParser.ItemResult parser = (new ItemParser(regs)).parse(new StringReader(itemString));
-            res = new ItemInput(parser.item(), parser.components());
-
-            itemCache.put(itemString, res);
-            if (itemCache.size() > 64000)
-            {
-                itemCache.clear();
-            }
+            // [SCARY SHIT] persistent caches over server reloads
+            ItemInput res = itemCache.get(itemString, s -> {
+                ItemParser.ItemResult parser = (new ItemParser(regs)).parse(new StringReader(s));
+                return new ItemInput(parser.item(), parser.components());
+            });
             return res.createItemStack(1, false);
         }
         catch (CommandSyntaxException e)
@@ -667,15 +672,27 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     public Value get(Value value)
     {
         String valString = value.getString();
-        NbtPathArgument.NbtPath path = cachePath(valString);
+        if (nbtTag == null && stack != null)
+        {
+            Value component = getComponent(valString);
+            if (component != null)
+            {
+                return component;
+            }
+        }
+        return read(cachePath(valString), getTag(), valString.endsWith("[]"));
+    }
+
+    private static Value read(NbtPathArgument.NbtPath path, Tag tag, boolean asList)
+    {
         try
         {
-            List<Tag> tags = path.get(getTag());
+            List<Tag> tags = path.get(tag);
             if (tags.isEmpty())
             {
                 return Value.NULL;
             }
-            if (tags.size() == 1 && !valString.endsWith("[]"))
+            if (tags.size() == 1 && !asList)
             {
                 return NBTSerializableValue.decodeTag(tags.get(0));
             }
@@ -687,6 +704,47 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         return Value.NULL;
     }
 
+    /**
+     * Reads a path into a single component of a stack, like 'components.minecraft:custom_data.foo', encoding only that component.
+     * Like the whole tag, it is read from the stack as it is now, not as it was when the value was made.
+     *
+     * @return null if the path doesn't point into a single component, and needs the whole tag
+     */
+    @Nullable
+    private Value getComponent(String path)
+    {
+        Matcher matcher = componentPath.matcher(path);
+        if (!matcher.matches())
+        {
+            return null;
+        }
+        String key = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        ResourceLocation id = ResourceLocation.tryParse(key);
+        // keys of encoded components are always full ids
+        if (id == null || !id.toString().equals(key))
+        {
+            return null;
+        }
+        DataComponentType<?> type = BuiltInRegistries.DATA_COMPONENT_TYPE.getValue(id);
+        if (type == null || type.isTransient())
+        {
+            return null;
+        }
+        Optional<?> component = stack.getComponentsPatch().get(type);
+        if (component == null || component.isEmpty())
+        {
+            // not set on the stack, or removed, which is encoded under a different key
+            return Value.NULL;
+        }
+        Tag tag = StackTagCache.encodeComponent(type, component.get(), regs);
+        String rest = matcher.group(3);
+        if (rest.isEmpty())
+        {
+            return NBTSerializableValue.decodeTag(tag);
+        }
+        return read(cachePath(rest.startsWith(".") ? rest.substring(1) : rest), tag, rest.endsWith("[]"));
+    }
+
     @Override
     public boolean has(Value where)
     {
@@ -700,6 +758,8 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
             nbtTag = getTag().copy();
             nbtString = null;
             nbtSupplier = null;  // just to be sure
+            stack = null;
+            regs = null;
             owned = true;
         }
     }
@@ -736,29 +796,20 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
 
 
 
-    private static final Map<String, NbtPathArgument.NbtPath> pathCache = new HashMap<>();
+    private static final ParseCache<NbtPathArgument.NbtPath> pathCache = new ParseCache<>("nbt_paths", 1 << 16);
+    // components.<id> followed by the rest of the path, with the id unquoted, or quoted without escapes
+    private static final Pattern componentPath = Pattern.compile("^components\\.(?:\"([^\"\\\\]+)\"|([^.\\[\\]{}\"' ]+))(.*)$");
 
     private static NbtPathArgument.NbtPath cachePath(String arg)
     {
-        NbtPathArgument.NbtPath res = pathCache.get(arg);
-        if (res != null)
-        {
-            return res;
-        }
         try
         {
-            res = NbtPathArgument.nbtPath().parse(new StringReader(arg));
+            return pathCache.get(arg, s -> NbtPathArgument.nbtPath().parse(new StringReader(s)));
         }
         catch (CommandSyntaxException exc)
         {
             throw new InternalExpressionException("Incorrect nbt path: " + arg);
         }
-        if (pathCache.size() > 1024)
-        {
-            pathCache.clear();
-        }
-        pathCache.put(arg, res);
-        return res;
     }
 
     @Override
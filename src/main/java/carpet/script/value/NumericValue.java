@@ -6,10 +6,12 @@ import com.google.gson.JsonPrimitive;
 import net.minecraft.core.RegistryAccess;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.annotation.Nullable;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.Locale;
+import java.util.Map;
 
 import net.minecraft.nbt.DoubleTag;
 import net.minecraft.nbt.IntTag;
@@ -22,9 +24,80 @@ import static java.lang.Math.signum;
 public class NumericValue extends Value
 {
     private final double value;
-    private Long longValue;
+    // exact integer value, only meaningful if isLong, kept unboxed so integer arithmetic doesn't allocate twice
+    private final long longValue;
+    private final boolean isLong;
     private static final double epsilon = abs(32 * ((7 * 0.1) * 10 - 7));
     private static final MathContext displayRounding = new MathContext(12, RoundingMode.HALF_EVEN);
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final NumericValue[] cache = new NumericValue[CACHE_HIGH - CACHE_LOW + 1];
+    // shared instances already bound to the loop variables, so loops over ranges and blocks don't copy each value
+    private static final Map<String, NumericValue[]> boundCache = Map.of(
+            "_", boundTo("_"),
+            "_i", boundTo("_i"),
+            "_x", boundTo("_x"),
+            "_y", boundTo("_y"),
+            "_z", boundTo("_z")
+    );
+
+    static
+    {
+        for (int i = 0; i < cache.length; i++)
+        {
+            cache[i] = new NumericValue((long) i + CACHE_LOW);
+        }
+    }
+
+    private static NumericValue[] boundTo(String variable)
+    {
+        NumericValue[] bound = new NumericValue[cache.length];
+        for (int i = 0; i < bound.length; i++)
+        {
+            bound[i] = new NumericValue((long) i + CACHE_LOW);
+            bound[i].boundVariable = variable;
+        }
+        return bound;
+    }
+
+    /**
+     * Integer number, shared for small values. Shared instances are copied when bound to a variable,
+     * except for the loop variables _, _i, _x, _y and _z, which have their own shared instances
+     */
+    public static NumericValue of(long value)
+    {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+        {
+            return cache[(int) value - CACHE_LOW];
+        }
+        return new NumericValue(value);
+    }
+
+    private boolean isShared()
+    {
+        if (!isLong || longValue < CACHE_LOW || longValue > CACHE_HIGH)
+        {
+            return false;
+        }
+        int index = (int) longValue - CACHE_LOW;
+        if (cache[index] == this)
+        {
+            return true;
+        }
+        NumericValue[] bound = boundVariable == null ? null : boundCache.get(boundVariable);
+        return bound != null && bound[index] == this;
+    }
+
+    @Override
+    public Value bindTo(String value)
+    {
+        if (!isShared())
+        {
+            return super.bindTo(value);
+        }
+        NumericValue[] bound = value == null ? null : boundCache.get(value);
+        return bound != null ? bound[(int) longValue - CACHE_LOW] : reboundedTo(value);
+    }
 
     public static NumericValue asNumber(Value v1, String id)
     {
@@ -52,7 +125,7 @@ public class NumericValue extends Value
         }
         if (value.doubleValue() == value.longValue())
         {
-            return new NumericValue(value.longValue());
+            return of(value.longValue());
         }
         if (value instanceof Float)
         {
@@ -65,9 +138,9 @@ public class NumericValue extends Value
     @Override
     public String getString()
     {
-        if (longValue != null)
+        if (isLong)
         {
-            return Long.toString(getLong());
+            return Long.toString(longValue);
         }
         try
         {
@@ -95,7 +168,7 @@ public class NumericValue extends Value
     @Override
     public String getPrettyString()
     {
-        return longValue != null || getDouble() == getLong()
+        return isLong || getDouble() == getLong()
                 ? Long.toString(getLong())
                 : String.format(Locale.ROOT, "%.1f..", getDouble());
     }
@@ -124,7 +197,7 @@ public class NumericValue extends Value
 
     public long getLong()
     {
-        return longValue != null ? longValue : Long.valueOf(floor((value + epsilon)));
+        return isLong ? longValue : floor(value + epsilon);
     }
 
     @Override
@@ -132,7 +205,7 @@ public class NumericValue extends Value
     {  // TODO test if definintn add(NumericVlaue) woud solve the casting
         if (v instanceof NumericValue nv)
         {
-            return longValue != null && nv.longValue != null ? new NumericValue(longValue + nv.longValue) : new NumericValue(value + nv.value);
+            return sum(this, nv);
         }
         return super.add(v);
     }
@@ -142,7 +215,7 @@ public class NumericValue extends Value
     {  // TODO test if definintn add(NumericVlaue) woud solve the casting
         if (v instanceof NumericValue nv)
         {
-            return longValue != null && nv.longValue != null ? new NumericValue(longValue - nv.longValue) : new NumericValue(value - nv.value);
+            return difference(this, nv);
         }
         return super.subtract(v);
     }
@@ -152,7 +225,7 @@ public class NumericValue extends Value
     {
         if (v instanceof NumericValue nv)
         {
-            return longValue != null && nv.longValue != null ? new NumericValue(longValue * nv.longValue) : new NumericValue(value * nv.value);
+            return product(this, nv);
         }
         return v instanceof ListValue ? v.multiply(this) : new StringValue(StringUtils.repeat(v.getString(), (int) getLong()));
     }
@@ -163,10 +236,30 @@ public class NumericValue extends Value
         return v instanceof NumericValue nv ? new NumericValue(getDouble() / nv.getDouble()) : super.divide(v);
     }
 
+    public static NumericValue sum(NumericValue a, NumericValue b)
+    {
+        return a.isLong && b.isLong ? of(a.longValue + b.longValue) : new NumericValue(a.value + b.value);
+    }
+
+    public static NumericValue difference(NumericValue a, NumericValue b)
+    {
+        return a.isLong && b.isLong ? of(a.longValue - b.longValue) : new NumericValue(a.value - b.value);
+    }
+
+    public static NumericValue product(NumericValue a, NumericValue b)
+    {
+        return a.isLong && b.isLong ? of(a.longValue * b.longValue) : new NumericValue(a.value * b.value);
+    }
+
+    public static int compare(NumericValue a, NumericValue b)
+    {
+        return a.isLong && b.isLong ? Long.compare(a.longValue, b.longValue) : Double.compare(a.value, b.value);
+    }
+
     @Override
     public Value clone()
     {
-        return new NumericValue(value, longValue);
+        return new NumericValue(value, longValue, isLong);
     }
 
     @Override
@@ -178,7 +271,7 @@ public class NumericValue extends Value
         }
         if (o instanceof NumericValue no)
         {
-            return longValue != null && no.longValue != null ? longValue.compareTo(no.longValue) : Double.compare(value, no.value);
+            return compare(this, no);
         }
         return getString().compareTo(o.getString());
     }
@@ -194,9 +287,9 @@ public class NumericValue extends Value
             }
             if (o instanceof NumericValue no)
             {
-                if (longValue != null && no.longValue != null)
+                if (isLong && no.isLong)
                 {
-                    return longValue.equals(no.longValue);
+                    return longValue == no.longValue;
                 }
                 if (Double.isNaN(this.value) || Double.isNaN(no.value))
                 {
@@ -211,35 +304,50 @@ public class NumericValue extends Value
 
     public NumericValue(double value)
     {
-        this.value = value;
+        this(value, 0, false);
     }
 
-    private NumericValue(double value, Long longValue)
+    private NumericValue(double value, long longValue, boolean isLong)
     {
         this.value = value;
         this.longValue = longValue;
+        this.isLong = isLong;
     }
 
     public NumericValue(String value)
     {
-        BigDecimal decimal = new BigDecimal(value);
+        this(new BigDecimal(value));
+    }
+
+    private NumericValue(BigDecimal decimal)
+    {
+        this(decimal.doubleValue(), exactLong(decimal));
+    }
+
+    private NumericValue(double value, @Nullable Long exact)
+    {
+        this(value, exact == null ? 0 : exact, exact != null);
+    }
+
+    @Nullable
+    private static Long exactLong(BigDecimal decimal)
+    {
         if (decimal.stripTrailingZeros().scale() <= 0)
         {
             try
             {
-                longValue = decimal.longValueExact();
+                return decimal.longValueExact();
             }
             catch (ArithmeticException ignored)
             {
             }
         }
-        this.value = decimal.doubleValue();
+        return null;
     }
 
     public NumericValue(long value)
     {
-        this.longValue = value;
-        this.value = (double) value;
+        this(value, value, true);
     }
 
     @Override
@@ -270,7 +378,7 @@ public class NumericValue extends Value
     public int hashCode()
     {
         // is sufficiently close to the integer value
-        return longValue != null || Math.abs(Math.floor(value + 0.5D) - value) < epsilon ? Long.hashCode(getLong()) : Double.hashCode(value);
+        return isLong || Math.abs(Math.floor(value + 0.5D) - value) < epsilon ? Long.hashCode(getLong()) : Double.hashCode(value);
     }
 
 
@@ -282,11 +390,11 @@ public class NumericValue extends Value
     @Override
     public Tag toTag(boolean force, RegistryAccess regs)
     {
-        if (longValue != null)
+        if (isLong)
         {
             if (abs(longValue) < Integer.MAX_VALUE - 2)
             {
-                return IntTag.valueOf((int) (long) longValue);
+                return IntTag.valueOf((int) longValue);
             }
             return LongTag.valueOf(longValue);
         }
@@ -308,7 +416,7 @@ public class NumericValue extends Value
     @Override
     public JsonElement toJson()
     {
-        if (longValue != null)
+        if (isLong)
         {
             return new JsonPrimitive(longValue);
         }
@@ -317,19 +425,19 @@ public class NumericValue extends Value
 
     public NumericValue opposite()
     {
-        return longValue != null ? new NumericValue(-longValue) : new NumericValue(-value);
+        return isLong ? of(-longValue) : new NumericValue(-value);
     }
 
     public boolean isInteger()
     {
-        return longValue != null || getDouble() == getLong();
+        return isLong || getDouble() == getLong();
     }
 
     public Value mod(NumericValue n2)
     {
-        if (this.longValue != null && n2.longValue != null)
+        if (this.isLong && n2.isLong)
         {
-            return new NumericValue(Math.floorMod(longValue, n2.longValue));
+            return of(Math.floorMod(longValue, n2.longValue));
         }
         double x = value;
         double y = n2.value;
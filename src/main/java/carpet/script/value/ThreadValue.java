@@ -2,6 +2,7 @@ package carpet.script.value;
 
 import carpet.script.Context;
 import carpet.script.Expression;
+import carpet.script.TaskPool;
 import carpet.script.Token;
 import carpet.script.exception.ExitStatement;
 import carpet.script.exception.ExpressionException;
@@ -13,8 +14,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import net.minecraft.core.RegistryAccess;
 import net.minecraft.nbt.Tag;
@@ -23,48 +26,78 @@ public class ThreadValue extends LazyListValue
 {
     private final CompletableFuture<Value> taskFuture;
     private final long id;
-    private static long sequence = 0L;
+    private static final AtomicLong sequence = new AtomicLong();
     private final Deque<Value> coState = new ArrayDeque<>();
     private final AtomicReference<Value> coLock = new AtomicReference<>(Value.EOL);
     public final boolean isCoroutine;
 
     public ThreadValue(Value pool, FunctionValue function, Expression expr, Token token, Context ctx, List<Value> args)
     {
-        this.id = sequence++;
+        this.id = sequence.getAndIncrement();
         this.isCoroutine = ctx.host.canSynchronouslyExecute();
         this.taskFuture = getCompletableFutureFromFunction(pool, function, expr, token, ctx, args);
 
         Thread.yield();
     }
 
-    public CompletableFuture<Value> getCompletableFutureFromFunction(Value pool, FunctionValue function, Expression expr, Token token, Context ctx, List<Value> args)
+    /**
+     * Task running a job computed by the game rather than a call to a scarpet function, like a survey of a region
+     */
+    public ThreadValue(Value pool, Context ctx, Supplier<Value> job)
     {
-        ExecutorService executor = ctx.host.getExecutor(pool);
-        ThreadValue callingThread = isCoroutine ? this : null;
-        if (executor == null)
-        {
-            // app is shutting down - no more threads can be spawned.
-            return CompletableFuture.completedFuture(Value.NULL);
-        }
-        else
+        this.id = sequence.getAndIncrement();
+        this.isCoroutine = false;
+        this.taskFuture = supply(ctx, pool, () -> run(ctx, job));
+    }
+
+    /**
+     * Starts a job in a task pool, or returns null right away if the app is shutting down and can't start any more tasks
+     */
+    private static CompletableFuture<Value> supply(Context ctx, Value pool, Supplier<Value> job)
+    {
+        TaskPool executor = ctx.host.getExecutor(pool);
+        while (executor != null)
         {
-            return CompletableFuture.supplyAsync(() -> {
-                try
-                {
-                    return function.execute(ctx, Context.NONE, expr, token, args, callingThread).evalValue(ctx);
-                }
-                catch (ExitStatement exit)
-                {
-                    // app stopped
-                    return exit.retval;
-                }
-                catch (ExpressionException exc)
+            try
+            {
+                return CompletableFuture.supplyAsync(job, executor);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // pool was reconfigured and its previous executor shut down since we got it, the new one takes the task
+                TaskPool current = ctx.host.getExecutor(pool);
+                if (current == executor)
                 {
-                    ctx.host.handleExpressionException("Thread failed\n", exc);
-                    return Value.NULL;
+                    throw e;
                 }
-            }, ctx.host.getExecutor(pool));
+                executor = current;
+            }
         }
+        return CompletableFuture.completedFuture(Value.NULL);
+    }
+
+    private static Value run(Context ctx, Supplier<Value> job)
+    {
+        try
+        {
+            return job.get();
+        }
+        catch (ExitStatement exit)
+        {
+            // app stopped
+            return exit.retval;
+        }
+        catch (ExpressionException exc)
+        {
+            ctx.host.handleExpressionException("Thread failed\n", exc);
+            return Value.NULL;
+        }
+    }
+
+    public CompletableFuture<Value> getCompletableFutureFromFunction(Value pool, FunctionValue function, Expression expr, Token token, Context ctx, List<Value> args)
+    {
+        ThreadValue callingThread = isCoroutine ? this : null;
+        return supply(ctx, pool, () -> run(ctx, () -> function.execute(ctx, Context.NONE, expr, token, args, callingThread).evalValue(ctx)));
     }
 
     @Override
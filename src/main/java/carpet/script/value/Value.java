@@ -2,6 +2,7 @@ package carpet.script.value;
 
 import carpet.script.CarpetScriptServer;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.ParseCache;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 
@@ -141,12 +142,14 @@ public abstract class Value implements Comparable<Value>, Cloneable
         }
     }
 
+    private static final ParseCache<Pattern> patternCache = new ParseCache<>("patterns", 1 << 16);
+
     public Value in(Value value1)
     {
         Pattern p;
         try
         {
-            p = Pattern.compile(value1.getString());
+            p = patternCache.get(value1.getString(), Pattern::compile);
         }
         catch (PatternSyntaxException pse)
         {
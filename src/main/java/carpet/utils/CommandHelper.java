@@ -14,6 +14,33 @@ import net.minecraft.server.level.ServerPlayer;
  */
 public final class CommandHelper {
     private CommandHelper() {}
+
+    // tick in which the command typed by a player or in the console that is running now started, if any
+    private static int typedCommandTick = -1;
+
+    /**
+     * Marks the start of a command typed by a player or in the console, called from the server thread
+     */
+    public static void startTypedCommand(MinecraftServer server)
+    {
+        typedCommandTick = server.getTickCount();
+    }
+
+    public static void endTypedCommand()
+    {
+        typedCommandTick = -1;
+    }
+
+    /**
+     * Whether the command with the given source runs as part of a command typed by a player or in the console,
+     * as opposed to command blocks, functions, scripts or other mods, which may run it in the middle of a tick.
+     * Only these can safely run ticks of their own, like large /draw commands do.
+     */
+    public static boolean isTypedCommand(CommandSourceStack source)
+    {
+        // ticks run in the meantime may run other commands
+        return typedCommandTick >= 0 && typedCommandTick == source.getServer().getTickCount();
+    }
     /**
      * Notifies all players that the commands changed by resending the command tree.
      */
@@ -0,0 +1,128 @@
+package carpet.script;
+
+import carpet.script.utils.AppDataJournal;
+import carpet.script.utils.ScriptFileWriter;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Checks crash recovery of journaled app data: records are replayed in order, and torn, short or corrupted records
+ * at the end of the journal are dropped and cut off the file. Only needs nbt and file access, no server.
+ */
+public class AppDataJournalTest
+{
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException
+    {
+        Path directory = Files.createTempDirectory("journal-test");
+        ScriptFileWriter writer = new ScriptFileWriter();
+        try
+        {
+            run(directory, writer);
+        }
+        finally
+        {
+            writer.close();
+            try (Stream<Path> files = Files.walk(directory))
+            {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        if (failures > 0)
+        {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("Journal replays match the saved data");
+    }
+
+    private static void run(Path directory, ScriptFileWriter writer) throws IOException
+    {
+        Path dataFile = directory.resolve("app.nbt");
+        Path journalFile = AppDataJournal.journalOf(dataFile);
+        CompoundTag base = new CompoundTag();
+        base.putInt("a", 1);
+        base.putString("b", "kept until removed");
+        AppDataJournal journal = new AppDataJournal(base.copy(), 0);
+
+        CompoundTag state = base.copy();
+        state.putInt("a", 2);
+        state.putString("temporary", "put, then removed");
+        journal.save(dataFile, state, writer);
+        state.putInt("a", 3);
+        state.remove("b");
+        state.remove("temporary");
+        state.putString("c", "added last");
+        journal.save(dataFile, state, writer);
+        writer.flush();
+        long length = Files.size(journalFile);
+        check("replay of intact journal", replay(dataFile, base), state);
+        check("intact journal is kept", Files.size(journalFile), length);
+
+        byte[] valid = Files.readAllBytes(journalFile);
+        CompoundTag lost = state.copy();
+        lost.putInt("a", 4);
+        journal.save(dataFile, lost, writer);
+        writer.flush();
+        byte[] withRecord = Files.readAllBytes(journalFile);
+        byte[] record = Arrays.copyOfRange(withRecord, valid.length, withRecord.length);
+        check("replay of appended record", replay(dataFile, base), lost);
+
+        // header only partly written
+        writeJournal(journalFile, valid, Arrays.copyOf(record, 6));
+        check("replay with short header", replay(dataFile, base), state);
+        check("short header is cut off", Files.size(journalFile), length);
+
+        // header written, payload torn
+        writeJournal(journalFile, valid, Arrays.copyOf(record, record.length - 2));
+        check("replay with torn payload", replay(dataFile, base), state);
+        check("torn payload is cut off", Files.size(journalFile), length);
+
+        // complete record that doesn't match its checksum
+        byte[] corrupted = record.clone();
+        corrupted[corrupted.length - 1] ^= 0x55;
+        writeJournal(journalFile, valid, corrupted);
+        check("replay with checksum mismatch", replay(dataFile, base), state);
+        check("mismatched record is cut off", Files.size(journalFile), length);
+
+        // garbage length that points past the end of the file
+        writeJournal(journalFile, valid, new byte[]{0x7f, 0, 0, 0, 0, 0, 0, 0, 1});
+        check("replay with bad length", replay(dataFile, base), state);
+        check("bad length is cut off", Files.size(journalFile), length);
+
+        check("replay without journal", AppDataJournal.replay(directory.resolve("other.nbt"), base.copy()), base);
+    }
+
+    private static Tag replay(Path dataFile, CompoundTag base) throws IOException
+    {
+        return AppDataJournal.replay(dataFile, base.copy());
+    }
+
+    private static void writeJournal(Path journalFile, byte[] records, byte[] tail) throws IOException
+    {
+        byte[] bytes = Arrays.copyOf(records, records.length + tail.length);
+        System.arraycopy(tail, 0, bytes, records.length, tail.length);
+        Files.write(journalFile, bytes);
+    }
+
+    private static void check(String name, Object actual, Object expected)
+    {
+        if (expected.equals(actual))
+        {
+            System.out.println("  ok   " + name);
+        }
+        else
+        {
+            failures++;
+            System.out.println("  FAIL " + name + ": got " + actual + ", expected " + expected);
+        }
+    }
+}
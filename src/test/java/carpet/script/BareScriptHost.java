@@ -0,0 +1,39 @@
+package carpet.script;
+
+import java.nio.file.Path;
+
+/**
+ * Bare script host running the language core without a Minecraft server, for tests and benchmarks
+ */
+class BareScriptHost extends ScriptHost
+{
+    BareScriptHost()
+    {
+        super(null, new ScriptServer()
+        {
+            @Override
+            public Path resolveResource(String suffix)
+            {
+                return Path.of(suffix);
+            }
+        }, false, null, Expression.LoadOverride.DEFAULT);
+    }
+
+    @Override
+    protected Module getModuleOrLibraryByName(String name)
+    {
+        throw new UnsupportedOperationException("Bare hosts don't import modules");
+    }
+
+    @Override
+    protected void runModuleCode(Context c, Module module)
+    {
+        throw new UnsupportedOperationException("Bare hosts don't import modules");
+    }
+
+    @Override
+    protected ScriptHost duplicate()
+    {
+        return new BareScriptHost();
+    }
+}
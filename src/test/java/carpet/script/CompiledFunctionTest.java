@@ -0,0 +1,142 @@
+package carpet.script;
+
+import carpet.script.exception.ExpressionException;
+import carpet.script.exception.InternalExpressionException;
+import carpet.script.value.MapValue;
+import carpet.script.value.Value;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs user defined functions interpreted and compiled to bytecode, and checks that both give the same results.
+ * Runs without a Minecraft server, using a bare script host.
+ */
+public class CompiledFunctionTest
+{
+    private static final Map<String, String> PROGRAMS = new LinkedHashMap<>();
+
+    static
+    {
+        PROGRAMS.put("arithmetic", """
+                f(a, b) -> a * b + a / b - a % 3 + (a > b) - (a == b);
+                s = 0;
+                loop(200, s += f(_ + 1, 3));
+                s
+                """);
+        PROGRAMS.put("strings", """
+                g(x) -> upper('v' + x) + str('%d', x * 2) + length(x + '');
+                join(',', map(range(20), g(_)))
+                """);
+        PROGRAMS.put("collections", """
+                h(l) -> (m = {}; for(l, m:_ = _ * _); l2 = []; for(sort(keys(m)), l2 += m:_); [length(m), l2:3, slice(l2, 2, 5)]);
+                h(range(30))
+                """);
+        PROGRAMS.put("recursion", """
+                fib(n) -> if(n < 2, n, fib(n - 1) + fib(n - 2));
+                fib(15)
+                """);
+        PROGRAMS.put("early_exit", """
+                first(l, v) -> (for(l, if(_ == v, return(_i)); if(_ % 2, continue())); -1);
+                count(n) -> (c = 0; c_for(i = 0, i < n, i += 1, if(i > 10, break()); c += i); c);
+                [first(range(50), 20), first(range(50), 21), first(range(50), 99), count(100), count(5)]
+                """);
+        PROGRAMS.put("conditions", """
+                sign(x) -> if(x > 0, 'pos', x < 0, 'neg', 'zero');
+                both(a, b) -> a && b || !a && !b;
+                [map([-2, 0, 3], sign(_)), both(true, true), both(true, false), both(null, false)]
+                """);
+        PROGRAMS.put("lambdas", """
+                make(k) -> _(x, outer(k)) -> x * k;
+                f = make(7);
+                twice(fn, x) -> call(fn, call(fn, x));
+                [map(range(10), call(f, _)), twice(f, 2), twice(_(x) -> x + '!', 'hi')]
+                """);
+        PROGRAMS.put("varargs", """
+                total(...args) -> reduce(args, _a + _, 0);
+                first_and_rest(a, ...rest) -> [a, length(rest), rest];
+                [total(), total(1), total(1, 2, 3), first_and_rest(1), first_and_rest(1, 2, 3)]
+                """);
+        PROGRAMS.put("argument_updates", """
+                inc(x) -> (x += 1; x = x * 2; x);
+                push(l) -> (l += 'new'; length(l));
+                outside = [1, 2];
+                [inc(1), inc(2.5), inc('a'), push(outside), outside]
+                """);
+        PROGRAMS.put("dynamic_variables", """
+                dyn(n) -> (var('v' + n) = n * 10; [var('v' + n), vars('v')]);
+                [dyn(3), dyn(4)]
+                """);
+        PROGRAMS.put("globals", """
+                global_c = 0;
+                bump(n) -> global_c += n;
+                loop(10, bump(_));
+                global_c
+                """);
+        PROGRAMS.put("errors", """
+                thrower(x) -> throw('value_error', x);
+                safe(x) -> try(thrower(x), 'value_error', 'caught');
+                [safe(5), try(thrower(6), 'value_error', 'outer')]
+                """);
+    }
+
+    public static void main(String[] args)
+    {
+        int failures = 0;
+        for (Map.Entry<String, String> program : PROGRAMS.entrySet())
+        {
+            String interpreted = run(program.getValue(), 0);
+            String compiled = run(program.getValue(), 1);
+            if (interpreted.equals(compiled))
+            {
+                System.out.println("  ok   " + program.getKey() + ": " + interpreted);
+            }
+            else
+            {
+                failures++;
+                System.out.println("  FAIL " + program.getKey() + ": interpreted " + interpreted + ", compiled " + compiled);
+            }
+        }
+        Map<Value, Value> statistics = ((MapValue) ExpressionCompiler.statistics()).getMap();
+        System.out.println("Compiler: " + statistics);
+        for (Map.Entry<Value, Value> entry : statistics.entrySet())
+        {
+            String key = entry.getKey().getString();
+            long count = entry.getValue().readInteger();
+            if ((key.equals("compiled") && count == 0) || (key.equals("failed") && count > 0))
+            {
+                failures++;
+                System.out.println("  FAIL expected function bodies to compile without failures");
+            }
+        }
+        if (failures > 0)
+        {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("All compiled functions match their interpreted results");
+    }
+
+    /**
+     * @param threshold calls after which function bodies compile, 0 to keep them interpreted
+     */
+    private static String run(String code, int threshold)
+    {
+        int previous = ExpressionCompiler.compileThreshold;
+        ExpressionCompiler.compileThreshold = threshold;
+        try
+        {
+            Expression expression = new Expression(code);
+            Value result = expression.executeAndEvaluate(new Context(new BareScriptHost()), true, Expression.LoadOverride.DEFAULT, null).getLeft();
+            return result.getTypeString() + " " + result.getString();
+        }
+        catch (ExpressionException | InternalExpressionException exc)
+        {
+            return "error " + exc.getMessage();
+        }
+        finally
+        {
+            ExpressionCompiler.compileThreshold = previous;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package carpet.script;
+
+import carpet.script.exception.ExpressionException;
+import carpet.script.exception.InternalExpressionException;
+import carpet.script.value.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs map and filter fused into the loop functions consuming them, and eagerly through an intermediate list,
+ * and checks that both give the same results. Runs without a Minecraft server, using a bare script host.
+ */
+public class FusedLoopTest
+{
+    private record Case(String name, String fused, String eager)
+    {
+    }
+
+    private static final List<Case> CASES = new ArrayList<>();
+
+    static
+    {
+        CASES.add(new Case("reduce_filter_map",
+                "reduce(filter(map(range(50), _ * _), _ % 3 == 0), _a + _, 0)",
+                "l = map(range(50), _ * _); l = filter(l, _ % 3 == 0); reduce(l, _a + _, 0)"));
+        CASES.add(new Case("first",
+                "first(map(range(100), _ * 2), _ > 30)",
+                "l = map(range(100), _ * 2); first(l, _ > 30)"));
+        CASES.add(new Case("all",
+                "[all(filter(range(40), _ % 2), _ < 100), all(map(range(40), _ - 20), _ < 0)]",
+                "l = filter(range(40), _ % 2); m = map(range(40), _ - 20); [all(l, _ < 100), all(m, _ < 0)]"));
+        CASES.add(new Case("for",
+                "s = 0; for(map(range(20), _ + 1), s += _ * _i); s",
+                "s = 0; l = map(range(20), _ + 1); for(l, s += _ * _i); s"));
+        CASES.add(new Case("chained_maps",
+                "reduce(map(map(filter(range(30), _ > 5), str(_)), length(_)), _a + _, 0)",
+                "l = filter(range(30), _ > 5); l = map(l, str(_)); l = map(l, length(_)); reduce(l, _a + _, 0)"));
+        CASES.add(new Case("side_effects",
+                "c = 0; r = first(map(range(10), c += 1; _), _ == 2); [r, c]",
+                "c = 0; l = map(range(10), c += 1; _); r = first(l, _ == 2); [r, c]"));
+        CASES.add(new Case("break_in_consumer",
+                "c = []; for(map(range(10), _ * 3), if(_ > 9, break()); c += _); c",
+                "c = []; l = map(range(10), _ * 3); for(l, if(_ > 9, break()); c += _); c"));
+        CASES.add(new Case("return_inside_function",
+                "f() -> map(range(5), if(_ == 3, return([42]), _)); g() -> (r = []; for(f(), r += _); [r, 'g finished']); g()",
+                "f() -> (l = map(range(5), if(_ == 3, return([42]), _)); l); g() -> (r = []; for(f(), r += _); [r, 'g finished']); g()"));
+        CASES.add(new Case("function_result",
+                "f(n) -> map(range(n), _ * 10); reduce(filter(f(8), _ > 20), _a + _, 0)",
+                "f(n) -> (l = map(range(n), _ * 10); l); reduce(filter(f(8), _ > 20), _a + _, 0)"));
+        CASES.add(new Case("error_inside_function",
+                "f() -> map(range(5), if(_ == 3, throw('value_error', 'bad'), _)); g() -> try(for(f(), _), 'value_error', 'caught in g'); g()",
+                "f() -> (l = map(range(5), if(_ == 3, throw('value_error', 'bad'), _)); l); g() -> try(for(f(), _), 'value_error', 'caught in g'); g()"));
+        CASES.add(new Case("error_inside_try",
+                "try(for(try(map(range(5), if(_ == 3, throw('value_error', 'inner'), _)), 'value_error', ['inner caught']), _), 'value_error', 'outer caught')",
+                "try(l = try(map(range(5), if(_ == 3, throw('value_error', 'inner'), _)), 'value_error', ['inner caught']); for(l, _), 'value_error', 'outer caught')"));
+    }
+
+    public static void main(String[] args)
+    {
+        int failures = 0;
+        for (Case test : CASES)
+        {
+            String fused = run(test.fused());
+            String eager = run(test.eager());
+            if (fused.equals(eager))
+            {
+                System.out.println("  ok   " + test.name() + ": " + fused);
+            }
+            else
+            {
+                failures++;
+                System.out.println("  FAIL " + test.name() + ": fused " + fused + ", eager " + eager);
+            }
+        }
+        if (failures > 0)
+        {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("All fused loops match their eager results");
+    }
+
+    private static String run(String code)
+    {
+        try
+        {
+            Expression expression = new Expression(code);
+            Value result = expression.executeAndEvaluate(new Context(new BareScriptHost()), true, Expression.LoadOverride.DEFAULT, null).getLeft();
+            return result.getTypeString() + " " + result.getString();
+        }
+        catch (ExpressionException | InternalExpressionException exc)
+        {
+            return "error " + exc.getMessage();
+        }
+    }
+}